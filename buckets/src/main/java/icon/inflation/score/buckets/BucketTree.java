@@ -0,0 +1,118 @@
+package icon.inflation.score.buckets;
+
+import icon.inflation.score.structs.Bucket;
+import score.Context;
+import scorex.util.ArrayList;
+
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Flattens nested bucket allocations into the leaf buckets that are paid by distribute.
+ *
+ * A child references its parent by name and its share is a fraction of the parent, so
+ * the shares of all children of a parent must add up to TOTAL_SHARE. The effective share
+ * of a leaf is the product of the shares along its path, and the leaf is named after the
+ * full path, e.g. "PoL/sICX-ICX".
+ */
+public class BucketTree {
+    public static final String SEPARATOR = "/";
+
+    /**
+     * @return Returns the leaf buckets with their effective shares, in the order of the input
+     */
+    public static Bucket[] flatten(Bucket[] _buckets, BigInteger totalShare) {
+        for (int i = 0; i < _buckets.length; i++) {
+            Bucket bucket = _buckets[i];
+            Context.require(bucket.name != null && !bucket.name.contains(SEPARATOR), Errors.INVALID_NAME);
+            Context.require(bucket.share.compareTo(BigInteger.ZERO) > 0, Errors.NEGATIVE_PERCENTAGE);
+            for (int j = 0; j < i; j++) {
+                Context.require(!_buckets[j].name.equals(bucket.name), Errors.DUPLICATE_BUCKET);
+            }
+
+            if (bucket.parent != null) {
+                Context.require(indexOf(_buckets, bucket.parent) >= 0, Errors.UNKNOWN_PARENT);
+            }
+        }
+
+        List<Bucket> leaves = new ArrayList<>();
+        int reached = 0;
+        for (Bucket bucket : _buckets) {
+            if (bucket.parent == null) {
+                reached += addLeaves(_buckets, bucket, bucket.name, bucket.share, totalShare, leaves);
+            }
+        }
+
+        // Buckets whose parents form a cycle can not be reached from any top level bucket
+        Context.require(reached == _buckets.length, Errors.UNKNOWN_PARENT);
+
+        Bucket[] result = new Bucket[leaves.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = leaves.get(i);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return Returns the number of buckets visited in the subtree of node
+     */
+    private static int addLeaves(Bucket[] _buckets, Bucket node, String path, BigInteger share,
+            BigInteger totalShare, List<Bucket> leaves) {
+        List<Bucket> children = new ArrayList<>();
+        BigInteger childSum = BigInteger.ZERO;
+        for (Bucket bucket : _buckets) {
+            if (node.name.equals(bucket.parent)) {
+                children.add(bucket);
+                childSum = childSum.add(bucket.share);
+            }
+        }
+
+        if (children.isEmpty()) {
+            Context.require(node.address != null, Errors.MISSING_ADDRESS);
+            Bucket leaf = new Bucket();
+            leaf.name = path;
+            leaf.address = node.address;
+            leaf.share = share;
+            leaf.minPayout = node.minPayout;
+            leaf.action = node.action;
+            leaf.data = node.data;
+            leaves.add(leaf);
+            return 1;
+        }
+
+        Context.require(childSum.equals(totalShare), Errors.INVALID_SUM);
+
+        // Dev note: The last child gets what is left of the parent, so that rounding never
+        // changes the total share of the parent.
+        BigInteger remaining = share;
+        int reached = 1;
+        int size = children.size();
+        for (int i = 0; i < size; i++) {
+            Bucket child = children.get(i);
+            BigInteger childShare = i == size - 1 ? remaining : share.multiply(child.share).divide(totalShare);
+            remaining = remaining.subtract(childShare);
+            Context.require(childShare.signum() > 0, Errors.NEGATIVE_PERCENTAGE);
+            reached += addLeaves(_buckets, child, path + SEPARATOR + child.name, childShare, totalShare, leaves);
+        }
+
+        return reached;
+    }
+
+    /**
+     * @return Returns true if the bucket is the given top level bucket or one of its leaves
+     */
+    public static boolean isWithin(Bucket bucket, String root) {
+        return bucket.name.equals(root) || bucket.name.startsWith(root + SEPARATOR);
+    }
+
+    private static int indexOf(Bucket[] _buckets, String name) {
+        for (int i = 0; i < _buckets.length; i++) {
+            if (_buckets[i].name.equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
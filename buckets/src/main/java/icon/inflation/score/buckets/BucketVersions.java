@@ -0,0 +1,329 @@
+package icon.inflation.score.buckets;
+
+import icon.inflation.score.structs.Bucket;
+import score.Address;
+import score.Context;
+import score.DictDB;
+import score.VarDB;
+import scorex.util.ArrayList;
+
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Double buffered bucket configuration. The active configuration is read from one slot
+ * while the next one is staged in the other slot, in as many chunks as needed. Switching
+ * to the staged configuration only moves the version pointer.
+ *
+ * A version pointer holds both the slot and the number of chunks: slot + 2 * chunks.
+ * Every configuration written to a slot gets a new generation, which keys its name and
+ * address indexes and the total share of each address, so that they never have to be
+ * cleared when switching. The entries of the configuration a slot held before are cleared
+ * chunk by chunk as the slot is written again, so at most two configurations are stored.
+ */
+public class BucketVersions {
+    public static final VarDB<BigInteger> active = Context.newVarDB("ACTIVE_BUCKETS", BigInteger.class);
+    public static final VarDB<BigInteger> staged = Context.newVarDB("STAGED_BUCKETS", BigInteger.class);
+    public static final DictDB<String, byte[]> chunks = Context.newDictDB("BUCKET_CHUNKS", byte[].class);
+    public static final DictDB<String, BigInteger> chunkGeneration = Context.newDictDB("BUCKET_CHUNK_GENERATION",
+            BigInteger.class);
+
+    // Per generation: position of each bucket as chunk << 32 | offset, start of each chunk and count
+    public static final VarDB<BigInteger> generation = Context.newVarDB("BUCKET_GENERATION", BigInteger.class);
+    public static final DictDB<Integer, BigInteger> slotGeneration = Context.newDictDB("BUCKET_SLOT_GENERATION",
+            BigInteger.class);
+    public static final DictDB<String, BigInteger> nameIndex = Context.newDictDB("BUCKET_NAME_INDEX", BigInteger.class);
+    public static final DictDB<String, BigInteger> addressIndex = Context.newDictDB("BUCKET_ADDRESS_INDEX",
+            BigInteger.class);
+    public static final DictDB<String, BigInteger> addressShare = Context.newDictDB("BUCKET_ADDRESS_SHARE",
+            BigInteger.class);
+    public static final DictDB<String, Integer> chunkStart = Context.newDictDB("BUCKET_CHUNK_START", Integer.class);
+    public static final DictDB<BigInteger, Integer> count = Context.newDictDB("BUCKET_COUNT", Integer.class);
+
+    // Validation of the staged configuration, kept up to date with each chunk
+    public static final VarDB<BigInteger> stagedShare = Context.newVarDB("STAGED_SHARE", BigInteger.class);
+
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+    private static final int OFFSET_BITS = 32;
+
+    public static Bucket[] getActive() {
+        return read(active.get());
+    }
+
+    public static int getCount() {
+        BigInteger version = active.get();
+        return version == null ? 0 : count.getOrDefault(slotGeneration.get(slotOf(version)), 0);
+    }
+
+    public static Bucket getByName(String name) {
+        return at(nameIndex, name);
+    }
+
+    public static Bucket getByAddress(Address address) {
+        return at(addressIndex, address.toString());
+    }
+
+    /**
+     * @return Returns the summed share of all active buckets with the address
+     */
+    public static BigInteger getShare(Address address) {
+        BigInteger version = active.get();
+        if (version == null) {
+            return BigInteger.ZERO;
+        }
+
+        String id = key(slotGeneration.get(slotOf(version)), address.toString());
+        return addressShare.getOrDefault(id, BigInteger.ZERO);
+    }
+
+    /**
+     * @return Returns up to limit buckets starting at offset, only reading the chunks they are in
+     */
+    public static Bucket[] getPage(int offset, int limit) {
+        BigInteger version = active.get();
+        int total = getCount();
+        if (version == null || offset < 0 || limit <= 0 || offset >= total) {
+            return new Bucket[0];
+        }
+
+        int end = offset + Math.min(total - offset, limit);
+
+        int slot = slotOf(version);
+        String gen = slotGeneration.get(slot).toString();
+        int chunk = chunkOf(gen, chunksOf(version), offset);
+        Bucket[] page = new Bucket[end - offset];
+        int position = offset;
+        while (position < end) {
+            int start = chunkStart.get(key(gen, chunk));
+            Bucket[] _buckets = PackedBuckets.decode(chunks.get(key(slot, chunk)));
+            for (int i = position - start; i < _buckets.length && position < end; i++) {
+                page[position - offset] = _buckets[i];
+                position++;
+            }
+            chunk++;
+        }
+
+        return page;
+    }
+
+    public static boolean isStaging() {
+        return staged.get() != null;
+    }
+
+    public static BigInteger getStagedShare() {
+        return stagedShare.getOrDefault(BigInteger.ZERO);
+    }
+
+    public static BigInteger getStagedCount() {
+        return BigInteger.valueOf(isStaging() ? count.getOrDefault(generation.get(), 0) : 0);
+    }
+
+    public static int getStagedChunks() {
+        BigInteger version = staged.get();
+        return version == null ? 0 : chunksOf(version);
+    }
+
+    /**
+     * Replaces the active configuration in a single chunk, discarding anything staged.
+     */
+    public static void replace(Bucket[] _buckets) {
+        int slot = nextSlot();
+        BigInteger gen = nextGeneration(slot);
+        write(slot, gen, 0, _buckets);
+        active.set(version(slot, 1));
+        discard();
+        clearFrom(slot, 1);
+    }
+
+    /**
+     * Appends a chunk to the staged configuration, starting a new one if nothing is staged.
+     * Bucket names have to be unique across all chunks.
+     */
+    public static void stage(Bucket[] _buckets) {
+        BigInteger version = staged.get();
+        int slot;
+        BigInteger gen;
+        if (version == null) {
+            slot = nextSlot();
+            gen = nextGeneration(slot);
+            version = version(slot, 0);
+        } else {
+            slot = slotOf(version);
+            gen = generation.get();
+        }
+
+        BigInteger share = getStagedShare();
+        for (Bucket bucket : _buckets) {
+            share = share.add(bucket.share);
+        }
+
+        int chunk = chunksOf(version);
+        write(slot, gen, chunk, _buckets);
+        staged.set(version(slot, chunk + 1));
+        stagedShare.set(share);
+    }
+
+    /**
+     * Makes the staged configuration active by moving the version pointer.
+     */
+    public static void commit() {
+        BigInteger version = staged.get();
+        active.set(version);
+        discard();
+        clearFrom(slotOf(version), chunksOf(version));
+    }
+
+    public static void discard() {
+        staged.set(null);
+        stagedShare.set(null);
+    }
+
+    private static void write(int slot, BigInteger gen, int chunk, Bucket[] _buckets) {
+        // Dev note: The name index doubles as duplicate check across chunks, since a
+        // generation is only ever written by one configuration.
+        clear(slot, chunk);
+        String prefix = gen.toString();
+        int start = count.getOrDefault(gen, 0);
+        for (int i = 0; i < _buckets.length; i++) {
+            BigInteger position = BigInteger.valueOf(chunk).shiftLeft(OFFSET_BITS).or(BigInteger.valueOf(i));
+            String name = key(prefix, _buckets[i].name);
+            Context.require(nameIndex.get(name) == null, Errors.DUPLICATE_BUCKET);
+            nameIndex.set(name, position);
+            String address = key(prefix, _buckets[i].address.toString());
+            if (addressIndex.get(address) == null) {
+                addressIndex.set(address, position);
+            }
+            addressShare.set(address, addressShare.getOrDefault(address, BigInteger.ZERO).add(_buckets[i].share));
+        }
+
+        chunks.set(key(slot, chunk), PackedBuckets.encode(_buckets));
+        chunkGeneration.set(key(slot, chunk), gen);
+        chunkStart.set(key(prefix, chunk), start);
+        count.set(gen, start + _buckets.length);
+    }
+
+    /**
+     * Clears the index entries of the chunk a slot held before it is written again.
+     */
+    private static void clear(int slot, int chunk) {
+        String id = key(slot, chunk);
+        BigInteger gen = chunkGeneration.get(id);
+        if (gen == null) {
+            return;
+        }
+
+        String prefix = gen.toString();
+        for (Bucket bucket : PackedBuckets.decode(chunks.get(id))) {
+            nameIndex.set(key(prefix, bucket.name), null);
+            String address = key(prefix, bucket.address.toString());
+            addressIndex.set(address, null);
+            addressShare.set(address, null);
+        }
+
+        chunkStart.set(key(prefix, chunk), null);
+        if (chunk == 0) {
+            count.set(gen, null);
+        }
+    }
+
+    /**
+     * Clears the chunks of a slot that the configuration now in it does not use.
+     */
+    private static void clearFrom(int slot, int chunk) {
+        while (chunkGeneration.get(key(slot, chunk)) != null) {
+            clear(slot, chunk);
+            chunks.set(key(slot, chunk), null);
+            chunkGeneration.set(key(slot, chunk), null);
+            chunk++;
+        }
+    }
+
+    private static Bucket at(DictDB<String, BigInteger> index, String id) {
+        BigInteger version = active.get();
+        if (version == null) {
+            return null;
+        }
+
+        int slot = slotOf(version);
+        BigInteger position = index.get(key(slotGeneration.get(slot).toString(), id));
+        if (position == null) {
+            return null;
+        }
+
+        int chunk = position.shiftRight(OFFSET_BITS).intValue();
+        int offset = position.intValue();
+        return PackedBuckets.decode(chunks.get(key(slot, chunk)))[offset];
+    }
+
+    /**
+     * @return Returns the chunk containing the position, with a binary search over the chunk starts
+     */
+    private static int chunkOf(String gen, int chunkCount, int position) {
+        int low = 0;
+        int high = chunkCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) / 2;
+            if (chunkStart.get(key(gen, mid)) <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return low;
+    }
+
+    private static Bucket[] read(BigInteger version) {
+        if (version == null) {
+            return new Bucket[0];
+        }
+
+        int slot = slotOf(version);
+        int chunkCount = chunksOf(version);
+        if (chunkCount == 1) {
+            return PackedBuckets.decode(chunks.get(key(slot, 0)));
+        }
+
+        List<Bucket> _buckets = new ArrayList<>();
+        for (int i = 0; i < chunkCount; i++) {
+            for (Bucket bucket : PackedBuckets.decode(chunks.get(key(slot, i)))) {
+                _buckets.add(bucket);
+            }
+        }
+
+        Bucket[] result = new Bucket[_buckets.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = _buckets.get(i);
+        }
+
+        return result;
+    }
+
+    private static int nextSlot() {
+        BigInteger version = active.get();
+        return version == null ? 0 : 1 - slotOf(version);
+    }
+
+    private static BigInteger nextGeneration(int slot) {
+        BigInteger gen = generation.getOrDefault(BigInteger.ZERO).add(BigInteger.ONE);
+        generation.set(gen);
+        slotGeneration.set(slot, gen);
+        return gen;
+    }
+
+    private static BigInteger version(int slot, int chunkCount) {
+        return BigInteger.valueOf(slot).add(TWO.multiply(BigInteger.valueOf(chunkCount)));
+    }
+
+    private static int slotOf(BigInteger version) {
+        return version.testBit(0) ? 1 : 0;
+    }
+
+    private static int chunksOf(BigInteger version) {
+        return version.shiftRight(1).intValue();
+    }
+
+    private static String key(Object prefix, Object id) {
+        return prefix + BucketTree.SEPARATOR + id;
+    }
+}
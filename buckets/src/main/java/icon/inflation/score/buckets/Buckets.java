@@ -1,26 +1,100 @@
 package icon.inflation.score.buckets;
 
 import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
 
 import icon.inflation.score.interfaces.IBuckets;
 import icon.inflation.score.structs.Bucket;
 import icon.inflation.score.util.DBUtils;
+import score.Address;
 import score.Context;
 import score.ArrayDB;
+import score.BranchDB;
+import score.DictDB;
+import score.VarDB;
+import score.annotation.EventLog;
 import score.annotation.External;
+import score.annotation.Optional;
 import score.annotation.Payable;
+import scorex.util.ArrayList;
+import scorex.util.HashMap;
 
 import static icon.inflation.score.util.Constants.EXA;
 import static icon.inflation.score.util.Checks.onlyOwner;
 
 public class Buckets implements IBuckets {
 
+    // Legacy layout, only read to migrate into BucketVersions
     public ArrayDB<Bucket> buckets = Context.newArrayDB("BUCKETS", Bucket.class);
 
+    // Claim mode: distribute() only moves the emissions index and buckets pull their share with claim()
+    public static final VarDB<Boolean> claimMode = Context.newVarDB("CLAIM_MODE", Boolean.class);
+    public static final VarDB<BigInteger> emissionsPerShare = Context.newVarDB("EMISSIONS_PER_SHARE", BigInteger.class);
+    public static final VarDB<BigInteger> unclaimedEmissions = Context.newVarDB("UNCLAIMED_EMISSIONS", BigInteger.class);
+    public static final DictDB<Address, BigInteger> claimable = Context.newDictDB("CLAIMABLE", BigInteger.class);
+    public static final DictDB<Address, BigInteger> emissionsIndex = Context.newDictDB("EMISSIONS_INDEX", BigInteger.class);
+    // Rounding dust of settled emissions, scaled by EXA. Whole ICX of it are owed to nobody.
+    public static final VarDB<BigInteger> emissionsDust = Context.newVarDB("EMISSIONS_DUST", BigInteger.class);
+
+    // Amounts owed to buckets that have not been paid out yet, scaled by TOTAL_SHARE, and the
+    // address they are owed to, so that they can still be claimed once a bucket is removed
+    public static final DictDB<String, BigInteger> carriedForward = Context.newDictDB("BUCKET_CARRIED_FORWARD", BigInteger.class);
+    public static final DictDB<String, Address> carriedForwardTo = Context.newDictDB("BUCKET_CARRIED_FORWARD_TO", Address.class);
+    public static final VarDB<BigInteger> totalCarriedForward = Context.newVarDB("TOTAL_CARRIED_FORWARD", BigInteger.class);
+
+    // IRC2 tokens distributed alongside ICX, with the received amounts that have not been distributed yet
+    public static final ArrayDB<Address> tokens = Context.newArrayDB("TOKENS", Address.class);
+    public static final DictDB<Address, BigInteger> tokenBalances = Context.newDictDB("TOKEN_BALANCES", BigInteger.class);
+    // Token payouts that failed, per token and bucket address. Failed ICX payouts are kept in claimable.
+    public static final BranchDB<Address, DictDB<Address, BigInteger>> claimableTokens = Context.newBranchDB(
+            "CLAIMABLE_TOKENS", BigInteger.class);
+
+    // Balance snapshots and next bucket of a distribution round spanning multiple transactions
+    public static final VarDB<BigInteger> roundBalance = Context.newVarDB("ROUND_BALANCE", BigInteger.class);
+    public static final DictDB<Address, BigInteger> roundTokenBalances = Context.newDictDB("ROUND_TOKEN_BALANCES", BigInteger.class);
+    public static final VarDB<Integer> roundCursor = Context.newVarDB("ROUND_CURSOR", Integer.class);
+    public static final VarDB<BigInteger> lastDistributionBlock = Context.newVarDB("LAST_DISTRIBUTION_BLOCK", BigInteger.class);
+
+    // Used by buckets with the stake action
+    public static final VarDB<Address> staking = Context.newVarDB("STAKING_ADDRESS", Address.class);
+
+    // Distribution triggered by incoming ICX
+    public static final VarDB<Boolean> autoDistribution = Context.newVarDB("AUTO_DISTRIBUTION", Boolean.class);
+    public static final VarDB<BigInteger> autoDistributionMinBalance = Context.newVarDB("AUTO_DISTRIBUTION_MIN_BALANCE", BigInteger.class);
+    public static final VarDB<BigInteger> autoDistributionInterval = Context.newVarDB("AUTO_DISTRIBUTION_INTERVAL", BigInteger.class); // Blocks
+    public static final VarDB<BigInteger> autoDistributionMaxBuckets = Context.newVarDB("AUTO_DISTRIBUTION_MAX_BUCKETS", BigInteger.class);
+
     private static BigInteger TOTAL_SHARE = EXA;
     private static String NAME = "ICON IRelay Inflation Manager";
     private static boolean distributing = false;
     public Buckets() {
+        if (buckets.size() > 0) {
+            Bucket[] _buckets = new Bucket[buckets.size()];
+            for (int i = 0; i < _buckets.length; i++) {
+                _buckets[i] = buckets.get(i);
+            }
+
+            BucketVersions.replace(withUniqueNames(_buckets));
+            DBUtils.clear(buckets);
+        }
+    }
+
+    private static Bucket[] withUniqueNames(Bucket[] _buckets) {
+        // Dev note: The baseline configureBuckets did not reject duplicate names. Later copies of a
+        // name are renamed after their position, so that each of them keeps its own payout.
+        Map<String, Boolean> names = new HashMap<>();
+        for (int i = 0; i < _buckets.length; i++) {
+            String name = _buckets[i].name;
+            while (names.containsKey(name)) {
+                name = name + "_" + i;
+            }
+
+            names.put(name, true);
+            _buckets[i].name = name;
+        }
+
+        return _buckets;
     }
 
     @External(readonly = true)
@@ -29,14 +103,81 @@ public class Buckets implements IBuckets {
     }
 
     @External(readonly = true)
-    public Bucket[] getBuckets() {
-        int size = buckets.size();
-        Bucket[] _buckets = new Bucket[size];
-        for (int i = 0; i < size; i++) {
-            _buckets[i] = buckets.get(i);
+    public Bucket[] getBuckets(@Optional BigInteger _offset, @Optional BigInteger _limit) {
+        if (_offset == null && _limit == null) {
+            return BucketVersions.getActive();
         }
 
-        return _buckets;
+        BigInteger offset = _offset == null ? BigInteger.ZERO : _offset;
+        Context.require(offset.signum() >= 0 && (_limit == null || _limit.signum() >= 0), Errors.NEGATIVE_VALUE);
+
+        // Dev note: Both are clamped to the bucket count before converting, so that large
+        // values neither truncate nor overflow
+        BigInteger total = BigInteger.valueOf(BucketVersions.getCount());
+        offset = offset.min(total);
+        BigInteger limit = _limit == null ? total : _limit;
+        return BucketVersions.getPage(offset.intValue(), limit.min(total.subtract(offset)).intValue());
+    }
+
+    @External(readonly = true)
+    public BigInteger getBucketCount() {
+        return BigInteger.valueOf(BucketVersions.getCount());
+    }
+
+    @External(readonly = true)
+    public Bucket getBucket(String _name) {
+        return BucketVersions.getByName(_name);
+    }
+
+    @External(readonly = true)
+    public Bucket getBucketByAddress(Address _address) {
+        return BucketVersions.getByAddress(_address);
+    }
+
+    @External(readonly = true)
+    public Map<String, Object> getStagedBuckets() {
+        return Map.of(
+                "active", BucketVersions.isStaging(),
+                "chunks", BigInteger.valueOf(BucketVersions.getStagedChunks()),
+                "count", BucketVersions.getStagedCount(),
+                "share", BucketVersions.getStagedShare());
+    }
+
+    @External
+    public void stageBuckets(Bucket[] _buckets) {
+        onlyOwner();
+        Bucket[] leaves = BucketTree.flatten(_buckets, TOTAL_SHARE);
+        for (Bucket leaf : leaves) {
+            validate(leaf);
+        }
+
+        BucketVersions.stage(leaves);
+    }
+
+    @External
+    public void commitBuckets() {
+        onlyOwner();
+        Context.require(BucketVersions.isStaging(), Errors.NOTHING_STAGED);
+        Context.require(roundBalance.get() == null, Errors.ROUND_IN_PROGRESS);
+        Context.require(BucketVersions.getStagedShare().equals(TOTAL_SHARE), Errors.INVALID_SUM);
+
+        // Dev note: Only claim mode has to settle the accrued emissions of each bucket, otherwise
+        // the commit is independent of the number of buckets.
+        boolean settle = emissionsPerShare.getOrDefault(BigInteger.ZERO).signum() > 0;
+        if (settle) {
+            settleAll(BucketVersions.getActive());
+        }
+
+        BucketVersions.commit();
+        if (settle) {
+            resetIndexes(BucketVersions.getActive());
+        }
+    }
+
+    @External
+    public void discardStagedBuckets() {
+        onlyOwner();
+        BucketVersions.discard();
     }
 
     @External
@@ -45,42 +186,671 @@ public class Buckets implements IBuckets {
         // this should always be the governance score when deployed in a real
         // environment.
         onlyOwner();
-        BigInteger sum = BigInteger.ZERO;
-        DBUtils.clear(this.buckets);
+        Context.require(roundBalance.get() == null, Errors.ROUND_IN_PROGRESS);
+        storeBuckets(BucketVersions.getActive(), BucketTree.flatten(_buckets, TOTAL_SHARE));
+    }
 
+    @External
+    public void updateBuckets(Bucket[] _buckets) {
+        onlyOwner();
+        Context.require(roundBalance.get() == null, Errors.ROUND_IN_PROGRESS);
+        Bucket[] previous = BucketVersions.getActive();
+        List<Bucket> updated = new ArrayList<>();
+        for (Bucket bucket : previous) {
+            updated.add(bucket);
+        }
+
+        // Dev note: A top level bucket is replaced in place together with all of its children,
+        // so a subtree is always updated as a whole.
+        List<Bucket> additions = new ArrayList<>();
         for (Bucket bucket : _buckets) {
-            Context.require(bucket.share.compareTo(BigInteger.ZERO) > 0, Errors.NEGATIVE_PERCENTAGE);
-            sum = sum.add(bucket.share);
-            this.buckets.add(bucket);
+            Context.require(bucket.share.compareTo(BigInteger.ZERO) >= 0, Errors.NEGATIVE_PERCENTAGE);
+            if (bucket.share.signum() > 0) {
+                additions.add(bucket);
+            }
         }
 
-        Context.require(sum.equals(TOTAL_SHARE), Errors.INVALID_SUM);
+        Bucket[] input = new Bucket[additions.size()];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = additions.get(i);
+        }
+
+        Bucket[] leaves = BucketTree.flatten(input, TOTAL_SHARE);
+        for (Bucket bucket : _buckets) {
+            if (bucket.parent != null) {
+                continue;
+            }
+
+            int position = removeWithin(updated, bucket.name);
+            for (Bucket leaf : leaves) {
+                if (BucketTree.isWithin(leaf, bucket.name)) {
+                    updated.add(position++, leaf);
+                }
+            }
+        }
+
+        Bucket[] next = new Bucket[updated.size()];
+        for (int i = 0; i < next.length; i++) {
+            next[i] = updated.get(i);
+        }
+
+        storeBuckets(previous, next);
+    }
+
+    @External(readonly = true)
+    public Address getStaking() {
+        return staking.get();
+    }
+
+    @External
+    public void setStaking(Address _staking) {
+        onlyOwner();
+        staking.set(_staking);
+    }
+
+    @External(readonly = true)
+    public boolean getClaimMode() {
+        return claimMode.getOrDefault(false);
+    }
+
+    @External
+    public void setClaimMode(boolean _enabled) {
+        onlyOwner();
+        Context.require(roundBalance.get() == null, Errors.ROUND_IN_PROGRESS);
+        claimMode.set(_enabled);
+    }
+
+    @External(readonly = true)
+    public BigInteger getUnclaimedEmissions() {
+        return unclaimedEmissions.getOrDefault(BigInteger.ZERO);
+    }
+
+    @External(readonly = true)
+    public BigInteger getEmissionsDust() {
+        return emissionsDust.getOrDefault(BigInteger.ZERO).divide(EXA);
+    }
+
+    @External
+    public void recoverEmissionsDust() {
+        onlyOwner();
+        BigInteger dust = getEmissionsDust();
+        Context.require(dust.signum() > 0, Errors.NOTHING_TO_RECOVER);
+
+        // Dev note: Releasing the dust from the unclaimed emissions makes it part of the balance
+        // of the next distribution, which adds it to the emissions index again.
+        emissionsDust.set(emissionsDust.get().subtract(dust.multiply(EXA)));
+        unclaimedEmissions.set(getUnclaimedEmissions().subtract(dust));
+    }
+
+    @External(readonly = true)
+    public BigInteger getCarriedForward(String _bucket) {
+        return carriedForward.getOrDefault(_bucket, BigInteger.ZERO).divide(TOTAL_SHARE);
+    }
+
+    @External(readonly = true)
+    public BigInteger getClaimable(Address _address, @Optional String _bucket) {
+        BigInteger accrued = accrued(_address, BucketVersions.getShare(_address));
+        BigInteger amount = claimable.getOrDefault(_address, BigInteger.ZERO).add(accrued);
+        if (_bucket != null && _address.equals(carriedForwardOwner(_bucket))) {
+            amount = amount.add(getCarriedForward(_bucket));
+        }
+
+        return amount;
+    }
+
+    @External
+    public void claim(@Optional String _bucket) {
+        Context.require(!distributing, Errors.NO_REENTRY);
+        Address caller = Context.getCaller();
+        BigInteger accrued = settle(caller, BucketVersions.getShare(caller));
+        BigInteger amount = claimable.getOrDefault(caller, BigInteger.ZERO).add(accrued);
+        BigInteger carried = BigInteger.ZERO;
+        if (_bucket != null) {
+            Context.require(caller.equals(carriedForwardOwner(_bucket)), Errors.NOT_BUCKET_ADDRESS);
+            carried = getCarriedForward(_bucket);
+        }
+
+        Context.require(amount.add(carried).compareTo(BigInteger.ZERO) > 0, Errors.NOTHING_TO_CLAIM);
+
+        claimable.set(caller, null);
+        emissionsIndex.set(caller, emissionsPerShare.getOrDefault(BigInteger.ZERO));
+        unclaimedEmissions.set(getUnclaimedEmissions().subtract(amount));
+        if (carried.signum() > 0) {
+            // Dev note: Only whole ICX are paid, the scaled dust stays with the bucket
+            BigInteger scaledCarried = carried.multiply(TOTAL_SHARE);
+            carriedForward.set(_bucket, carriedForward.get(_bucket).subtract(scaledCarried));
+            totalCarriedForward.set(totalCarriedForward.get().subtract(scaledCarried));
+        }
+
+        Context.transfer(caller, amount.add(carried));
+    }
+
+    @External(readonly = true)
+    public BigInteger getClaimableTokens(Address _address, Address _token) {
+        return claimableTokens.at(_token).getOrDefault(_address, BigInteger.ZERO);
     }
 
     @External
-    public void distribute() {
+    public void claimTokens(Address _token) {
         Context.require(!distributing, Errors.NO_REENTRY);
-        int size = buckets.size();
-        BigInteger balance = Context.getBalance(Context.getAddress());
+        Address caller = Context.getCaller();
+        BigInteger amount = getClaimableTokens(caller, _token);
+        Context.require(amount.signum() > 0, Errors.NOTHING_TO_CLAIM);
+
+        claimableTokens.at(_token).set(caller, null);
+        Context.call(_token, "transfer", caller, amount, null);
+    }
+
+    @External(readonly = true)
+    public Map<String, Object> getAutoDistribution() {
+        return Map.of(
+                "enabled", autoDistribution.getOrDefault(false),
+                "minBalance", autoDistributionMinBalance.getOrDefault(BigInteger.ZERO),
+                "interval", autoDistributionInterval.getOrDefault(BigInteger.ZERO),
+                "maxBuckets", autoDistributionMaxBuckets.getOrDefault(BigInteger.ZERO),
+                "lastDistributionBlock", lastDistributionBlock.getOrDefault(BigInteger.ZERO));
+    }
 
+    @External
+    public void configureAutoDistribution(boolean _enabled, BigInteger _minBalance, BigInteger _interval,
+            BigInteger _maxBuckets) {
+        onlyOwner();
+        Context.require(_minBalance.signum() >= 0, Errors.NEGATIVE_VALUE);
+        Context.require(_interval.signum() >= 0, Errors.NEGATIVE_VALUE);
+        Context.require(_maxBuckets.signum() >= 0, Errors.NEGATIVE_VALUE);
+        autoDistribution.set(_enabled);
+        autoDistributionMinBalance.set(_minBalance);
+        autoDistributionInterval.set(_interval);
+        autoDistributionMaxBuckets.set(_maxBuckets);
+    }
+
+    @External(readonly = true)
+    public Map<String, Object> getDistributionRound() {
+        BigInteger balance = roundBalance.get();
+        return Map.of(
+                "active", balance != null,
+                "balance", balance == null ? BigInteger.ZERO : balance,
+                "cursor", BigInteger.valueOf(roundCursor.getOrDefault(0)),
+                "buckets", getBucketCount());
+    }
+
+    @External(readonly = true)
+    public Map<String, Object> previewDistribution(@Optional BigInteger _maxBuckets) {
+        Bucket[] _buckets = BucketVersions.getActive();
+        int size = _buckets.length;
+        BigInteger balance = roundBalance.get();
+        int cursor = roundCursor.getOrDefault(0);
+        boolean newRound = balance == null;
+        if (newRound) {
+            balance = getDistributableBalance();
+        }
+
+        Address[] tokens = getTokens();
+        BigInteger[] tokenAmounts = getRoundTokenAmounts(tokens, newRound);
+
+        String error = "";
+        if (distributing) {
+            error = Errors.NO_REENTRY;
+        } else if (size == 0) {
+            error = Errors.BUCKETS_NOT_CONFIGURED;
+        } else if (balance.compareTo(BigInteger.ZERO) <= 0 && !hasAmounts(tokenAmounts)) {
+            error = Errors.EMPTY_BALANCE;
+        }
+
+        // Same batch as distribute, which covers all buckets at once when nothing is sent
+        boolean claimMode = getClaimMode();
+        boolean payBuckets = !claimMode || hasAmounts(tokenAmounts);
+        int end = payBuckets ? roundEnd(size, cursor, _maxBuckets) : size;
+        List<Map<String, Object>> payouts = new ArrayList<>();
+        BigInteger paid = BigInteger.ZERO;
+        BigInteger carriedTotal = BigInteger.ZERO;
+        BigInteger dust = BigInteger.ZERO;
+        if (error.isEmpty()) {
+            for (int i = cursor; i < end; i++) {
+                Bucket bucket = _buckets[i];
+                BigInteger amount;
+                BigInteger carried = BigInteger.ZERO;
+                if (claimMode) {
+                    // Allocated to the bucket, but only transferred on claim
+                    amount = bucket.share.multiply(balance.max(BigInteger.ZERO)).divide(TOTAL_SHARE);
+                } else {
+                    BigInteger[] payout = payout(bucket, balance.max(BigInteger.ZERO),
+                            carriedForward.getOrDefault(bucket.name, BigInteger.ZERO));
+                    amount = payout[0];
+                    carried = payout[1].divide(TOTAL_SHARE);
+                    dust = dust.add(payout[1].mod(TOTAL_SHARE));
+                }
+
+                Map<String, Object> tokenPayouts = new HashMap<>();
+                for (int j = 0; j < tokens.length; j++) {
+                    tokenPayouts.put(tokens[j].toString(), bucket.share.multiply(tokenAmounts[j]).divide(TOTAL_SHARE));
+                }
+
+                paid = paid.add(amount);
+                carriedTotal = carriedTotal.add(carried);
+                payouts.add(Map.of(
+                        "name", bucket.name,
+                        "address", bucket.address,
+                        "action", actionOf(bucket),
+                        "amount", amount,
+                        "carriedForward", carried,
+                        "tokens", tokenPayouts));
+            }
+        }
+
+        return Map.of(
+                "error", error,
+                "claimMode", claimMode,
+                "balance", balance,
+                "cursor", BigInteger.valueOf(cursor),
+                "roundComplete", end == size,
+                "payouts", payouts,
+                "paid", paid,
+                "carriedForward", carriedTotal,
+                "dust", dust.divide(TOTAL_SHARE));
+    }
+
+    @External
+    public void distribute(@Optional BigInteger _maxBuckets) {
+        Context.require(!distributing, Errors.NO_REENTRY);
+        Bucket[] _buckets = BucketVersions.getActive();
+        int size = _buckets.length;
         Context.require(size > 0, Errors.BUCKETS_NOT_CONFIGURED);
-        Context.require(balance.compareTo(BigInteger.ZERO) > 0, Errors.EMPTY_BALANCE);
+
+        BigInteger balance = roundBalance.get();
+        int cursor = roundCursor.getOrDefault(0);
+        boolean newRound = balance == null;
+        if (newRound) {
+            balance = getDistributableBalance().max(BigInteger.ZERO);
+        }
+
+        Address[] tokens = getTokens();
+        BigInteger[] tokenAmounts = getRoundTokenAmounts(tokens, newRound);
+        boolean hasTokens = hasAmounts(tokenAmounts);
+        boolean claimMode = getClaimMode();
+        if (newRound) {
+            Context.require(balance.compareTo(BigInteger.ZERO) > 0 || hasTokens, Errors.EMPTY_BALANCE);
+        }
+
+        // Dev note: In claim mode without tokens nothing is sent, each bucket settles lazily
+        // against the index, so this is O(1) regardless of the number of buckets
+        boolean payBuckets = !claimMode || hasTokens;
+        int end = payBuckets ? roundEnd(size, cursor, _maxBuckets) : size;
 
         distributing = true;
-        for (int i = 0; i < size; i++) {
-            Bucket bucket = buckets.get(i);
-            // Dev note: This way of calculating will create remaining dust. But since we
-            // are dealing with large amounts this should not matter and a good trade of for
-            // simplicity
-            BigInteger share = bucket.share.multiply(balance).divide(TOTAL_SHARE);
-            Context.transfer(bucket.address, share);
+        // Carried forward amounts of the buckets in this batch, before and after the payouts
+        int batch = claimMode ? 0 : end - cursor;
+        BigInteger[] carried = new BigInteger[batch];
+        BigInteger[] remaining = new BigInteger[batch];
+        BigInteger[] tokensPaid = new BigInteger[tokens.length];
+        for (int i = cursor; payBuckets && i < end; i++) {
+            // Dev note: All assets are paid in the same pass, so each bucket is only loaded once
+            Bucket bucket = _buckets[i];
+            if (!claimMode) {
+                carried[i - cursor] = carriedForward.getOrDefault(bucket.name, BigInteger.ZERO);
+                BigInteger[] payout = payout(bucket, balance, carried[i - cursor]);
+                remaining[i - cursor] = payout[1];
+                if (payout[0].signum() > 0) {
+                    trySend(bucket, payout[0]);
+                }
+            }
+
+            for (int j = 0; j < tokens.length; j++) {
+                // Dev note: Token dust stays in the tracked token balance for the next round
+                BigInteger amount = bucket.share.multiply(tokenAmounts[j]).divide(TOTAL_SHARE);
+                if (amount.signum() > 0) {
+                    trySendToken(bucket, tokens[j], amount);
+                    tokensPaid[j] = tokensPaid[j] == null ? amount : tokensPaid[j].add(amount);
+                }
+            }
         }
 
         distributing = false;
+
+        // Dev note: Failed sends are escrowed by trySend and trySendToken, and everything else is
+        // only written once all sends are done. A distribution that fails therefore fails
+        // before it writes any state.
+        if (newRound) {
+            lastDistributionBlock.set(BigInteger.valueOf(Context.getBlockHeight()));
+            if (claimMode && balance.signum() > 0) {
+                BigInteger index = emissionsPerShare.getOrDefault(BigInteger.ZERO);
+                emissionsPerShare.set(index.add(balance.multiply(EXA).divide(TOTAL_SHARE)));
+                unclaimedEmissions.set(getUnclaimedEmissions().add(balance));
+            }
+        }
+
+        BigInteger carriedChange = BigInteger.ZERO;
+        for (int i = cursor; !claimMode && i < end; i++) {
+            BigInteger before = carried[i - cursor];
+            BigInteger after = remaining[i - cursor];
+            if (!after.equals(before)) {
+                Bucket bucket = _buckets[i];
+                carriedForward.set(bucket.name, after.signum() == 0 ? null : after);
+                if (before.signum() == 0 || after.signum() == 0) {
+                    carriedForwardTo.set(bucket.name, after.signum() == 0 ? null : bucket.address);
+                }
+                carriedChange = carriedChange.add(after.subtract(before));
+            }
+        }
+
+        if (carriedChange.signum() != 0) {
+            totalCarriedForward.set(totalCarriedForward.getOrDefault(BigInteger.ZERO).add(carriedChange));
+        }
+
+        for (int j = 0; j < tokens.length; j++) {
+            if (tokensPaid[j] != null) {
+                tokenBalances.set(tokens[j], tokenBalances.get(tokens[j]).subtract(tokensPaid[j]));
+            }
+        }
+
+        if (end == size) {
+            if (!newRound) {
+                roundBalance.set(null);
+                roundCursor.set(null);
+                for (Address token : tokens) {
+                    roundTokenBalances.set(token, null);
+                }
+            }
+        } else {
+            // Dev note: The snapshot freezes the amounts of this round, so that assets arriving
+            // while the round is in progress are left for the next round
+            if (newRound) {
+                roundBalance.set(balance);
+                for (int j = 0; j < tokens.length; j++) {
+                    if (tokenAmounts[j].signum() > 0) {
+                        roundTokenBalances.set(tokens[j], tokenAmounts[j]);
+                    }
+                }
+            }
+            roundCursor.set(end);
+        }
+    }
+
+    @External(readonly = true)
+    public Address[] getTokens() {
+        int size = tokens.size();
+        Address[] _tokens = new Address[size];
+        for (int i = 0; i < size; i++) {
+            _tokens[i] = tokens.get(i);
+        }
+
+        return _tokens;
+    }
+
+    @External(readonly = true)
+    public BigInteger getTokenBalance(Address _token) {
+        return tokenBalances.getOrDefault(_token, BigInteger.ZERO);
+    }
+
+    @External
+    public void addToken(Address _token) {
+        onlyOwner();
+        if (!DBUtils.arrayDbContains(tokens, _token)) {
+            tokens.add(_token);
+        }
+    }
+
+    @External
+    public void removeToken(Address _token) {
+        onlyOwner();
+        Context.require(roundBalance.get() == null, Errors.ROUND_IN_PROGRESS);
+        DBUtils.removeFromArraydb(tokens, _token);
+    }
+
+    @External
+    public void tokenFallback(Address _from, BigInteger _value, byte[] _data) {
+        Address token = Context.getCaller();
+        Context.require(DBUtils.arrayDbContains(tokens, token), Errors.UNSUPPORTED_TOKEN);
+        Context.require(_value.signum() > 0, Errors.NEGATIVE_VALUE);
+        tokenBalances.set(token, getTokenBalance(token).add(_value));
     }
 
     @Payable
     public void fallback() {
+        if (!shouldAutoDistribute()) {
+            return;
+        }
+
+        try {
+            distribute(autoDistributionMaxBuckets.get());
+        } catch (Exception e) {
+            // Dev note: Incoming emissions must never be rejected. distribute writes no state
+            // before it can fail, so the next deposit or a manual distribute retries from
+            // the same state.
+            distributing = false;
+        }
+    }
+
+    @EventLog(indexed = 1)
+    public void PayoutEscrowed(Address bucket, BigInteger amount) {
+    }
+
+    @EventLog(indexed = 2)
+    public void TokenPayoutEscrowed(Address bucket, Address token, BigInteger amount) {
+    }
+
+    private boolean shouldAutoDistribute() {
+        if (!autoDistribution.getOrDefault(false) || distributing) {
+            return false;
+        }
+
+        // An unfinished round is always continued
+        if (roundBalance.get() != null) {
+            return true;
+        }
+
+        BigInteger lastBlock = lastDistributionBlock.get();
+        if (lastBlock != null) {
+            BigInteger height = BigInteger.valueOf(Context.getBlockHeight());
+            BigInteger nextDistributionBlock = lastBlock.add(autoDistributionInterval.getOrDefault(BigInteger.ZERO));
+            if (height.compareTo(nextDistributionBlock) < 0) {
+                return false;
+            }
+        }
+
+        BigInteger balance = getDistributableBalance();
+        return balance.signum() > 0 && balance.compareTo(autoDistributionMinBalance.getOrDefault(BigInteger.ZERO)) >= 0;
+    }
+
+    private void storeBuckets(Bucket[] previous, Bucket[] _buckets) {
+        BigInteger sum = BigInteger.ZERO;
+        for (int i = 0; i < _buckets.length; i++) {
+            Bucket bucket = _buckets[i];
+            validate(bucket);
+            for (int j = 0; j < i; j++) {
+                Context.require(!_buckets[j].name.equals(bucket.name), Errors.DUPLICATE_BUCKET);
+            }
+
+            sum = sum.add(bucket.share);
+        }
+
+        Context.require(sum.equals(TOTAL_SHARE), Errors.INVALID_SUM);
+        settleAll(previous);
+        BucketVersions.replace(_buckets);
+        resetIndexes(_buckets);
+    }
+
+    private void validate(Bucket bucket) {
+        Context.require(bucket.share.compareTo(BigInteger.ZERO) > 0, Errors.NEGATIVE_PERCENTAGE);
+        Context.require(minPayoutOf(bucket).signum() >= 0, Errors.NEGATIVE_VALUE);
+        String action = actionOf(bucket);
+        Context.require(action.equals(Bucket.ACTION_TRANSFER) || action.equals(Bucket.ACTION_STAKE),
+                Errors.UNKNOWN_ACTION);
+        if (action.equals(Bucket.ACTION_STAKE)) {
+            Context.require(staking.get() != null, Errors.STAKING_NOT_CONFIGURED);
+        }
+    }
+
+    /**
+     * @return Returns the position of the removed buckets, or the end of the list if there were none
+     */
+    private static int removeWithin(List<Bucket> _buckets, String root) {
+        int position = -1;
+        for (int i = _buckets.size() - 1; i >= 0; i--) {
+            if (BucketTree.isWithin(_buckets.get(i), root)) {
+                _buckets.remove(i);
+                position = i;
+            }
+        }
+
+        return position < 0 ? _buckets.size() : position;
+    }
+
+    private BigInteger getDistributableBalance() {
+        // Emissions that have been allocated to buckets but not paid out are still held by this
+        // contract
+        BigInteger carried = totalCarriedForward.getOrDefault(BigInteger.ZERO);
+        BigInteger reserved = carried.add(TOTAL_SHARE).subtract(BigInteger.ONE).divide(TOTAL_SHARE);
+        return Context.getBalance(Context.getAddress()).subtract(getUnclaimedEmissions()).subtract(reserved);
+    }
+
+    private BigInteger[] getRoundTokenAmounts(Address[] _tokens, boolean newRound) {
+        BigInteger[] amounts = new BigInteger[_tokens.length];
+        for (int i = 0; i < _tokens.length; i++) {
+            DictDB<Address, BigInteger> source = newRound ? tokenBalances : roundTokenBalances;
+            amounts[i] = source.getOrDefault(_tokens[i], BigInteger.ZERO);
+        }
+
+        return amounts;
+    }
+
+    private static boolean hasAmounts(BigInteger[] amounts) {
+        for (BigInteger amount : amounts) {
+            if (amount.signum() > 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int roundEnd(int size, int cursor, BigInteger maxBuckets) {
+        if (maxBuckets == null || maxBuckets.signum() <= 0) {
+            return size;
+        }
+
+        return cursor + maxBuckets.min(BigInteger.valueOf(size - cursor)).intValue();
+    }
+
+    /**
+     * Calculates the amount to transfer to a bucket and what remains carried forward.
+     *
+     * @return Returns the amount to transfer and the remaining amount scaled by TOTAL_SHARE
+     */
+    private static BigInteger[] payout(Bucket bucket, BigInteger balance, BigInteger carried) {
+        // Dev note: Amounts are kept scaled by TOTAL_SHARE, so that the rounding dust of each
+        // share is carried forward to the next distribution instead of being lost.
+        BigInteger owed = bucket.share.multiply(balance).add(carried);
+        BigInteger amount = owed.divide(TOTAL_SHARE);
+        if (amount.signum() > 0 && amount.compareTo(minPayoutOf(bucket)) >= 0) {
+            return new BigInteger[] { amount, owed.subtract(amount.multiply(TOTAL_SHARE)) };
+        }
+
+        return new BigInteger[] { BigInteger.ZERO, owed };
+    }
+
+    private void trySend(Bucket bucket, BigInteger amount) {
+        // Dev note: A failed payout is escrowed instead of reverting the distribution, so that
+        // a single rejecting bucket never blocks the others.
+        try {
+            send(bucket, amount);
+        } catch (Exception e) {
+            claimable.set(bucket.address, claimable.getOrDefault(bucket.address, BigInteger.ZERO).add(amount));
+            unclaimedEmissions.set(getUnclaimedEmissions().add(amount));
+            PayoutEscrowed(bucket.address, amount);
+        }
+    }
+
+    private void trySendToken(Bucket bucket, Address token, BigInteger amount) {
+        try {
+            Context.call(token, "transfer", bucket.address, amount, tokenDataOf(bucket));
+        } catch (Exception e) {
+            DictDB<Address, BigInteger> escrow = claimableTokens.at(token);
+            escrow.set(bucket.address, escrow.getOrDefault(bucket.address, BigInteger.ZERO).add(amount));
+            TokenPayoutEscrowed(bucket.address, token, amount);
+        }
+    }
+
+    private void send(Bucket bucket, BigInteger amount) {
+        // Dev note: Staking directly with the bucket address as receiver saves the hop through
+        // a relay contract and its fallback.
+        if (actionOf(bucket).equals(Bucket.ACTION_STAKE)) {
+            Context.call(amount, staking.get(), "stakeICX", bucket.address, bucket.data);
+        } else {
+            Context.transfer(bucket.address, amount);
+        }
+    }
+
+    /**
+     * @return Returns the address a carried forward amount of the bucket is owed to, which is
+     *         the current address of the bucket unless it has been removed
+     */
+    private static Address carriedForwardOwner(String name) {
+        Bucket bucket = BucketVersions.getByName(name);
+        return bucket != null ? bucket.address : carriedForwardTo.get(name);
+    }
+
+    private static String actionOf(Bucket bucket) {
+        return bucket.action == null ? Bucket.ACTION_TRANSFER : bucket.action;
+    }
+
+    private static byte[] tokenDataOf(Bucket bucket) {
+        // Dev note: The data of a stake bucket is the staking payload, which is not meant for
+        // the tokens sent to the same address
+        return actionOf(bucket).equals(Bucket.ACTION_STAKE) ? null : bucket.data;
+    }
+
+    private static BigInteger minPayoutOf(Bucket bucket) {
+        return bucket.minPayout == null ? BigInteger.ZERO : bucket.minPayout;
+    }
+
+    private BigInteger accrued(Address address, BigInteger share) {
+        return accruedScaled(address, share).divide(EXA);
+    }
+
+    /**
+     * Same as accrued, but keeps the rounding dust so that it can be recovered with
+     * recoverEmissionsDust. The index of the address has to be moved afterwards.
+     */
+    private BigInteger settle(Address address, BigInteger share) {
+        BigInteger[] accrued = accruedScaled(address, share).divideAndRemainder(EXA);
+        if (accrued[1].signum() > 0) {
+            emissionsDust.set(emissionsDust.getOrDefault(BigInteger.ZERO).add(accrued[1]));
+        }
+
+        return accrued[0];
+    }
+
+    private BigInteger accruedScaled(Address address, BigInteger share) {
+        BigInteger index = emissionsPerShare.getOrDefault(BigInteger.ZERO);
+        BigInteger lastIndex = emissionsIndex.getOrDefault(address, BigInteger.ZERO);
+        return share.multiply(index.subtract(lastIndex));
+    }
+
+    private void settleAll(Bucket[] _buckets) {
+        // Dev note: Accrue everything earned with the current shares before they are replaced.
+        // The indexes are only moved afterwards so that multiple buckets with the same address
+        // all accrue.
+        if (emissionsPerShare.getOrDefault(BigInteger.ZERO).signum() == 0) {
+            return;
+        }
+
+        for (Bucket bucket : _buckets) {
+            BigInteger accrued = settle(bucket.address, bucket.share);
+            claimable.set(bucket.address, claimable.getOrDefault(bucket.address, BigInteger.ZERO).add(accrued));
+        }
+
+        resetIndexes(_buckets);
     }
 
+    private void resetIndexes(Bucket[] _buckets) {
+        BigInteger index = emissionsPerShare.getOrDefault(BigInteger.ZERO);
+        if (index.signum() == 0) {
+            return;
+        }
+
+        for (Bucket bucket : _buckets) {
+            emissionsIndex.set(bucket.address, index);
+        }
+    }
 }
@@ -7,4 +7,18 @@ public class Errors {
     public static final String BUCKETS_NOT_CONFIGURED = "Buckets has not yet been configured";
     public static final String EMPTY_BALANCE = "Current ICX Balance is empty";
     public static final String NO_REENTRY = "No reentry allowed";
+    public static final String NOTHING_TO_CLAIM = "No emissions to claim";
+    public static final String NOTHING_TO_RECOVER = "There is no emissions dust to recover";
+    public static final String NOT_BUCKET_ADDRESS = "Only the address of a bucket can claim its carried forward emissions";
+    public static final String ROUND_IN_PROGRESS = "A distribution round is still in progress";
+    public static final String NEGATIVE_VALUE = "Value cannot be negative";
+    public static final String DUPLICATE_BUCKET = "Bucket names must be unique";
+    public static final String UNSUPPORTED_TOKEN = "Token is not distributed by this contract";
+    public static final String INVALID_NAME = "Bucket names cannot be empty or contain a '/'";
+    public static final String UNKNOWN_PARENT = "Parent bucket does not exist or forms a cycle";
+    public static final String MISSING_ADDRESS = "Buckets without children need an address";
+    public static final String UNKNOWN_ACTION = "Unknown bucket action";
+    public static final String STAKING_NOT_CONFIGURED = "Staking address has not been configured";
+    public static final String NOTHING_STAGED = "No bucket configuration has been staged";
+    public static final String UNKNOWN_STORAGE_VERSION = "Unknown bucket storage version";
 }
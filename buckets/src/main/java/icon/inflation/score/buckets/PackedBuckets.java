@@ -0,0 +1,60 @@
+package icon.inflation.score.buckets;
+
+import icon.inflation.score.structs.Bucket;
+import score.ByteArrayObjectWriter;
+import score.Context;
+import score.ObjectReader;
+import scorex.util.ArrayList;
+
+import java.util.List;
+
+/**
+ * Encodes the whole bucket configuration as a single value, so that it can be
+ * loaded with one storage read.
+ *
+ * Layout: [version, [[name, address, share, minPayout, action, data], ...]]
+ */
+public class PackedBuckets {
+    public static final int VERSION = 1;
+    private static final String CODEC = "RLPn";
+
+    public static byte[] encode(Bucket[] buckets) {
+        ByteArrayObjectWriter writer = Context.newByteArrayObjectWriter(CODEC);
+        writer.beginList(2);
+        writer.write(VERSION);
+        writer.beginList(buckets.length);
+        for (Bucket bucket : buckets) {
+            bucket.writeObject(writer);
+        }
+        writer.end();
+        writer.end();
+
+        return writer.toByteArray();
+    }
+
+    public static Bucket[] decode(byte[] data) {
+        if (data == null) {
+            return new Bucket[0];
+        }
+
+        ObjectReader reader = Context.newByteArrayObjectReader(CODEC, data);
+        reader.beginList();
+        int version = reader.readInt();
+        Context.require(version == VERSION, Errors.UNKNOWN_STORAGE_VERSION);
+
+        List<Bucket> buckets = new ArrayList<>();
+        reader.beginList();
+        while (reader.hasNext()) {
+            buckets.add(Bucket.readObject(reader));
+        }
+        reader.end();
+        reader.end();
+
+        Bucket[] result = new Bucket[buckets.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = buckets.get(i);
+        }
+
+        return result;
+    }
+}
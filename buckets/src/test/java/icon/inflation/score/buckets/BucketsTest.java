@@ -1,6 +1,8 @@
 package icon.inflation.score.buckets;
 
 import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
 
 import com.iconloop.score.test.Account;
 import com.iconloop.score.test.Score;
@@ -13,9 +15,19 @@ import org.junit.jupiter.api.function.Executable;
 
 import icon.inflation.score.structs.Bucket;
 import icon.inflation.score.util.Checks;
+import icon.inflation.test.MockContract;
+import icon.inflation.test.interfaces.IRC2;
+import icon.inflation.test.interfaces.IRC2ScoreInterface;
+import icon.inflation.test.interfaces.Receiver;
+import icon.inflation.test.interfaces.ReceiverScoreInterface;
+import icon.inflation.test.interfaces.Staking;
+import icon.inflation.test.interfaces.StakingScoreInterface;
 
 import static icon.inflation.test.Utils.expectErrorMessage;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static icon.inflation.score.util.Constants.EXA;
 
 public class BucketsTest extends TestBase {
@@ -96,6 +108,61 @@ public class BucketsTest extends TestBase {
         bucketEq(_buckets[0], configuredBuckets[0]);
     }
 
+    @Test
+    public void updateBuckets() {
+        // Arrange
+        Bucket networkOwnedLiquidity = newBucket("NOL",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(6).multiply(EXA).divide(BigInteger.valueOf(100))); // 6%
+        Bucket insurance = newBucket("Insurance", BigInteger.valueOf(4).multiply(EXA).divide(BigInteger.valueOf(100))); // 4%
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity, savings, insurance });
+
+        Bucket newSavings = newBucket("Savings", BigInteger.valueOf(8).multiply(EXA).divide(BigInteger.valueOf(100))); // 8%
+        Bucket removedInsurance = newBucket("Insurance", BigInteger.ZERO);
+        Bucket pol = newBucket("POL", BigInteger.valueOf(2).multiply(EXA).divide(BigInteger.valueOf(100))); // 2%
+
+        // Act
+        buckets.invoke(governance, "updateBuckets", (Object) new Bucket[] { newSavings, removedInsurance, pol });
+
+        // Assert
+        Bucket[] configuredBuckets = (Bucket[]) buckets.call("getBuckets");
+        assertEquals(3, configuredBuckets.length);
+        bucketEq(networkOwnedLiquidity, configuredBuckets[0]);
+        bucketEq(newSavings, configuredBuckets[1]);
+        bucketEq(pol, configuredBuckets[2]);
+    }
+
+    @Test
+    public void updateBuckets_invalidSum() {
+        // Arrange
+        Bucket networkOwnedLiquidity = newBucket("NOL",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(10).multiply(EXA).divide(BigInteger.valueOf(100))); // 10%
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity, savings });
+        Bucket newSavings = newBucket("Savings", BigInteger.valueOf(20).multiply(EXA).divide(BigInteger.valueOf(100))); // 20%
+
+        // Act
+        Executable invalidSum = () -> buckets.invoke(governance, "updateBuckets", (Object) new Bucket[] { newSavings });
+
+        // Assert
+        expectErrorMessage(invalidSum, Errors.INVALID_SUM);
+    }
+
+    @Test
+    public void configureBuckets_duplicateName() {
+        // Arrange
+        Bucket networkOwnedLiquidity = newBucket("NOL",
+                BigInteger.valueOf(50).multiply(EXA).divide(BigInteger.valueOf(100))); // 50%
+        Bucket duplicate = newBucket("NOL", BigInteger.valueOf(50).multiply(EXA).divide(BigInteger.valueOf(100))); // 50%
+
+        // Act
+        Executable duplicateName = () -> buckets.invoke(governance, "configureBuckets",
+                (Object) new Bucket[] { networkOwnedLiquidity, duplicate });
+
+        // Assert
+        expectErrorMessage(duplicateName, Errors.DUPLICATE_BUCKET);
+    }
+
     @Test
     public void distribute_emptyBalance() {
         // Arrange
@@ -177,6 +244,904 @@ public class BucketsTest extends TestBase {
         assertEquals(expectedInsuranceShare, balanceOf(insurance));
     }
 
+    @Test
+    public void distribute_claimMode() {
+        // Arrange
+        BigInteger balance = BigInteger.valueOf(100).multiply(EXA);
+        Bucket networkOwnedLiquidity = newBucket("NOL",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(6).multiply(EXA).divide(BigInteger.valueOf(100))); // 6%
+        Bucket insurance = newBucket("Insurance", BigInteger.valueOf(4).multiply(EXA).divide(BigInteger.valueOf(100))); // 4%
+        Bucket[] _buckets = new Bucket[] { networkOwnedLiquidity, savings, insurance };
+        buckets.invoke(governance, "configureBuckets", (Object) _buckets);
+        buckets.invoke(governance, "setClaimMode", true);
+        buckets.getAccount().addBalance(balance);
+
+        // Act
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        assertEquals(BigInteger.ZERO, balanceOf(networkOwnedLiquidity));
+        assertEquals(balance, buckets.call("getUnclaimedEmissions"));
+        assertEquals(BigInteger.valueOf(90).multiply(EXA), buckets.call("getClaimable", networkOwnedLiquidity.address));
+        assertEquals(BigInteger.valueOf(6).multiply(EXA), buckets.call("getClaimable", savings.address));
+        assertEquals(BigInteger.valueOf(4).multiply(EXA), buckets.call("getClaimable", insurance.address));
+
+        // Act
+        buckets.invoke(sm.getAccount(savings.address), "claim");
+
+        // Assert
+        assertEquals(BigInteger.valueOf(6).multiply(EXA), balanceOf(savings));
+        assertEquals(BigInteger.ZERO, buckets.call("getClaimable", savings.address));
+        assertEquals(BigInteger.valueOf(94).multiply(EXA), buckets.call("getUnclaimedEmissions"));
+        Executable claimAgain = () -> buckets.invoke(sm.getAccount(savings.address), "claim");
+        expectErrorMessage(claimAgain, Errors.NOTHING_TO_CLAIM);
+
+        // Unclaimed emissions are not distributed again
+        Executable distributeEmptyBalance = () -> buckets.invoke(governance, "distribute");
+        expectErrorMessage(distributeEmptyBalance, Errors.EMPTY_BALANCE);
+    }
+
+    @Test
+    public void distribute_claimMode_reconfigure() {
+        // Arrange
+        BigInteger balance = BigInteger.valueOf(100).multiply(EXA);
+        Bucket networkOwnedLiquidity = newBucket("NOL",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(10).multiply(EXA).divide(BigInteger.valueOf(100))); // 10%
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity, savings });
+        buckets.invoke(governance, "setClaimMode", true);
+        buckets.getAccount().addBalance(balance);
+        buckets.invoke(governance, "distribute");
+
+        // Act
+        networkOwnedLiquidity.share = BigInteger.valueOf(50).multiply(EXA).divide(BigInteger.valueOf(100)); // 50%
+        savings.share = BigInteger.valueOf(50).multiply(EXA).divide(BigInteger.valueOf(100)); // 50%
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity, savings });
+        buckets.getAccount().addBalance(balance);
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        assertEquals(BigInteger.valueOf(140).multiply(EXA), buckets.call("getClaimable", networkOwnedLiquidity.address));
+        assertEquals(BigInteger.valueOf(60).multiply(EXA), buckets.call("getClaimable", savings.address));
+
+        // Act
+        buckets.invoke(sm.getAccount(networkOwnedLiquidity.address), "claim");
+
+        // Assert
+        assertEquals(BigInteger.valueOf(140).multiply(EXA), balanceOf(networkOwnedLiquidity));
+    }
+
+    @Test
+    public void distribute_claimMode_recoverDust() {
+        // Arrange
+        BigInteger third = EXA.divide(BigInteger.valueOf(3));
+        Bucket networkOwnedLiquidity = newBucket("NOL", third);
+        Bucket reserve = newBucket("Reserve", third);
+        reserve.address = networkOwnedLiquidity.address;
+        Bucket savings = newBucket("Savings", EXA.subtract(third).subtract(third));
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity, reserve, savings });
+        buckets.invoke(governance, "setClaimMode", true);
+        buckets.getAccount().addBalance(BigInteger.TEN);
+        buckets.invoke(governance, "distribute");
+        Executable recoverNothing = () -> buckets.invoke(governance, "recoverEmissionsDust");
+        expectErrorMessage(recoverNothing, Errors.NOTHING_TO_RECOVER);
+
+        // Act
+        buckets.invoke(sm.getAccount(networkOwnedLiquidity.address), "claim");
+        buckets.invoke(sm.getAccount(savings.address), "claim");
+
+        // Assert
+        assertEquals(BigInteger.valueOf(6), balanceOf(networkOwnedLiquidity));
+        assertEquals(BigInteger.valueOf(3), balanceOf(savings));
+        assertEquals(BigInteger.ONE, buckets.call("getUnclaimedEmissions"));
+        assertEquals(BigInteger.ONE, buckets.call("getEmissionsDust"));
+
+        // Act
+        buckets.invoke(governance, "recoverEmissionsDust");
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        assertEquals(BigInteger.ZERO, buckets.call("getEmissionsDust"));
+        assertEquals(BigInteger.ONE, buckets.call("getUnclaimedEmissions"));
+        assertEquals(BigInteger.ZERO, buckets.call("getClaimable", savings.address));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void distribute_inRounds() {
+        // Arrange
+        BigInteger balance = BigInteger.valueOf(100).multiply(EXA);
+        buckets.getAccount().addBalance(balance);
+
+        Bucket networkOwnedLiquidity = newBucket("NOL",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(6).multiply(EXA).divide(BigInteger.valueOf(100))); // 6%
+        Bucket insurance = newBucket("Insurance", BigInteger.valueOf(4).multiply(EXA).divide(BigInteger.valueOf(100))); // 4%
+        Bucket[] _buckets = new Bucket[] { networkOwnedLiquidity, savings, insurance };
+        buckets.invoke(governance, "configureBuckets", (Object) _buckets);
+
+        // Act
+        buckets.invoke(governance, "distribute", BigInteger.TWO);
+
+        // Assert
+        Map<String, Object> round = (Map<String, Object>) buckets.call("getDistributionRound");
+        assertEquals(true, round.get("active"));
+        assertEquals(balance, round.get("balance"));
+        assertEquals(BigInteger.TWO, round.get("cursor"));
+        assertEquals(BigInteger.valueOf(90).multiply(EXA), balanceOf(networkOwnedLiquidity));
+        assertEquals(BigInteger.valueOf(6).multiply(EXA), balanceOf(savings));
+        assertEquals(BigInteger.ZERO, balanceOf(insurance));
+
+        Executable configureDuringRound = () -> buckets.invoke(governance, "configureBuckets", (Object) _buckets);
+        expectErrorMessage(configureDuringRound, Errors.ROUND_IN_PROGRESS);
+
+        // Act
+        // ICX received during the round is left for the next round
+        buckets.getAccount().addBalance(balance);
+        buckets.invoke(governance, "distribute", BigInteger.TWO);
+
+        // Assert
+        round = (Map<String, Object>) buckets.call("getDistributionRound");
+        assertEquals(false, round.get("active"));
+        assertEquals(BigInteger.ZERO, round.get("cursor"));
+        assertEquals(BigInteger.valueOf(4).multiply(EXA), balanceOf(insurance));
+        assertEquals(balance, buckets.getAccount().getBalance());
+    }
+
+    @Test
+    public void distribute_packedStorage() {
+        // A larger configuration round trips through the packed storage and is paid out in full
+
+        // Arrange
+        int numberOfBuckets = 20;
+        BigInteger balance = BigInteger.valueOf(1000).multiply(EXA);
+        buckets.getAccount().addBalance(balance);
+        Bucket[] _buckets = new Bucket[numberOfBuckets];
+        for (int i = 0; i < numberOfBuckets; i++) {
+            _buckets[i] = newBucket("Bucket" + i, EXA.divide(BigInteger.valueOf(numberOfBuckets))); // 5%
+        }
+
+        // Act
+        buckets.invoke(governance, "configureBuckets", (Object) _buckets);
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        Bucket[] configuredBuckets = (Bucket[]) buckets.call("getBuckets");
+        assertEquals(numberOfBuckets, configuredBuckets.length);
+        for (int i = 0; i < numberOfBuckets; i++) {
+            bucketEq(_buckets[i], configuredBuckets[i]);
+            assertEquals(BigInteger.valueOf(50).multiply(EXA), balanceOf(_buckets[i]));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void stageBuckets() {
+        // Arrange
+        BigInteger balance = BigInteger.valueOf(100).multiply(EXA);
+        Bucket networkOwnedLiquidity = newBucket("NOL", EXA);
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity });
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(60).multiply(EXA).divide(BigInteger.valueOf(100))); // 60%
+        Bucket insurance = newBucket("Insurance", BigInteger.valueOf(40).multiply(EXA).divide(BigInteger.valueOf(100))); // 40%
+
+        // Act
+        buckets.invoke(governance, "stageBuckets", (Object) new Bucket[] { savings });
+        Executable incompleteCommit = () -> buckets.invoke(governance, "commitBuckets");
+
+        // Assert
+        expectErrorMessage(incompleteCommit, Errors.INVALID_SUM);
+
+        // Act
+        buckets.invoke(governance, "stageBuckets", (Object) new Bucket[] { insurance });
+        buckets.getAccount().addBalance(balance);
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        Map<String, Object> staged = (Map<String, Object>) buckets.call("getStagedBuckets");
+        assertEquals(true, staged.get("active"));
+        assertEquals(BigInteger.TWO, staged.get("chunks"));
+        assertEquals(EXA, staged.get("share"));
+        assertEquals(balance, balanceOf(networkOwnedLiquidity));
+
+        // Act
+        buckets.invoke(governance, "commitBuckets");
+        buckets.getAccount().addBalance(balance);
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        Bucket[] configuredBuckets = (Bucket[]) buckets.call("getBuckets");
+        assertEquals(2, configuredBuckets.length);
+        bucketEq(savings, configuredBuckets[0]);
+        bucketEq(insurance, configuredBuckets[1]);
+        assertEquals(BigInteger.valueOf(60).multiply(EXA), balanceOf(savings));
+        assertEquals(BigInteger.valueOf(40).multiply(EXA), balanceOf(insurance));
+        staged = (Map<String, Object>) buckets.call("getStagedBuckets");
+        assertEquals(false, staged.get("active"));
+    }
+
+    @Test
+    public void stageBuckets_reusedSlot() {
+        // Arrange
+        Bucket networkOwnedLiquidity = newBucket("NOL", EXA);
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(60).multiply(EXA).divide(BigInteger.valueOf(100))); // 60%
+        Bucket insurance = newBucket("Insurance", BigInteger.valueOf(40).multiply(EXA).divide(BigInteger.valueOf(100))); // 40%
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity });
+        buckets.invoke(governance, "stageBuckets", (Object) new Bucket[] { savings });
+        buckets.invoke(governance, "stageBuckets", (Object) new Bucket[] { insurance });
+        buckets.invoke(governance, "commitBuckets");
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity });
+        Bucket replacement = newBucket("Savings", EXA);
+
+        // Act
+        // Written to the slot of the two chunk configuration, which is cleared as it is overwritten
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { replacement });
+
+        // Assert
+        Bucket[] configuredBuckets = (Bucket[]) buckets.call("getBuckets");
+        assertEquals(1, configuredBuckets.length);
+        bucketEq(replacement, configuredBuckets[0]);
+        assertEquals(BigInteger.ONE, buckets.call("getBucketCount"));
+        bucketEq(replacement, (Bucket) buckets.call("getBucket", "Savings"));
+        assertEquals(null, buckets.call("getBucket", "Insurance"));
+        assertEquals(null, buckets.call("getBucketByAddress", savings.address));
+        assertEquals(null, buckets.call("getBucketByAddress", insurance.address));
+        assertEquals(null, buckets.call("getBucketByAddress", networkOwnedLiquidity.address));
+    }
+
+    @Test
+    public void stageBuckets_duplicateAcrossChunks() {
+        // Arrange
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(60).multiply(EXA).divide(BigInteger.valueOf(100))); // 60%
+        Bucket duplicate = newBucket("Savings", BigInteger.valueOf(40).multiply(EXA).divide(BigInteger.valueOf(100))); // 40%
+        buckets.invoke(governance, "stageBuckets", (Object) new Bucket[] { savings });
+
+        // Act
+        Executable duplicateName = () -> buckets.invoke(governance, "stageBuckets", (Object) new Bucket[] { duplicate });
+
+        // Assert
+        expectErrorMessage(duplicateName, Errors.DUPLICATE_BUCKET);
+
+        // Act
+        buckets.invoke(governance, "discardStagedBuckets");
+        Executable nothingStaged = () -> buckets.invoke(governance, "commitBuckets");
+
+        // Assert
+        expectErrorMessage(nothingStaged, Errors.NOTHING_STAGED);
+    }
+
+    @Test
+    public void getBucket() {
+        // Arrange
+        Bucket networkOwnedLiquidity = newBucket("NOL",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(6).multiply(EXA).divide(BigInteger.valueOf(100))); // 6%
+        Bucket insurance = newBucket("Insurance", BigInteger.valueOf(4).multiply(EXA).divide(BigInteger.valueOf(100))); // 4%
+
+        // Act
+        buckets.invoke(governance, "stageBuckets", (Object) new Bucket[] { networkOwnedLiquidity, savings });
+        buckets.invoke(governance, "stageBuckets", (Object) new Bucket[] { insurance });
+        buckets.invoke(governance, "commitBuckets");
+
+        // Assert
+        assertEquals(BigInteger.valueOf(3), buckets.call("getBucketCount"));
+        bucketEq(savings, (Bucket) buckets.call("getBucket", "Savings"));
+        bucketEq(insurance, (Bucket) buckets.call("getBucket", "Insurance"));
+        bucketEq(networkOwnedLiquidity, (Bucket) buckets.call("getBucketByAddress", networkOwnedLiquidity.address));
+        assertEquals(null, buckets.call("getBucket", "Unknown"));
+
+        Bucket[] page = (Bucket[]) buckets.call("getBuckets", BigInteger.ONE, BigInteger.TWO);
+        assertEquals(2, page.length);
+        bucketEq(savings, page[0]);
+        bucketEq(insurance, page[1]);
+        page = (Bucket[]) buckets.call("getBuckets", BigInteger.TWO, BigInteger.TEN);
+        assertEquals(1, page.length);
+        bucketEq(insurance, page[0]);
+        page = (Bucket[]) buckets.call("getBuckets", BigInteger.valueOf(3), BigInteger.TEN);
+        assertEquals(0, page.length);
+    }
+
+    @Test
+    public void getBuckets_bounds() {
+        // Arrange
+        Bucket networkOwnedLiquidity = newBucket("NOL",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(6).multiply(EXA).divide(BigInteger.valueOf(100))); // 6%
+        Bucket insurance = newBucket("Insurance", BigInteger.valueOf(4).multiply(EXA).divide(BigInteger.valueOf(100))); // 4%
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity, savings, insurance });
+        BigInteger maxInt = BigInteger.valueOf(Integer.MAX_VALUE);
+        BigInteger beyondLong = BigInteger.TWO.pow(70);
+
+        // Act
+        Bucket[] maxLimit = (Bucket[]) buckets.call("getBuckets", BigInteger.ONE, maxInt);
+        Bucket[] hugeLimit = (Bucket[]) buckets.call("getBuckets", BigInteger.TWO, beyondLong);
+        Bucket[] hugeOffset = (Bucket[]) buckets.call("getBuckets", beyondLong, BigInteger.ONE);
+        Bucket[] onlyOffset = (Bucket[]) buckets.call("getBuckets", BigInteger.ONE, null);
+        Executable negativeOffset = () -> buckets.call("getBuckets", BigInteger.ONE.negate(), BigInteger.ONE);
+        Executable negativeLimit = () -> buckets.call("getBuckets", BigInteger.ZERO, BigInteger.ONE.negate());
+
+        // Assert
+        assertEquals(2, maxLimit.length);
+        bucketEq(savings, maxLimit[0]);
+        bucketEq(insurance, maxLimit[1]);
+        assertEquals(1, hugeLimit.length);
+        bucketEq(insurance, hugeLimit[0]);
+        assertEquals(0, hugeOffset.length);
+        assertEquals(2, onlyOffset.length);
+        expectErrorMessage(negativeOffset, Errors.NEGATIVE_VALUE);
+        expectErrorMessage(negativeLimit, Errors.NEGATIVE_VALUE);
+
+        // Act
+        buckets.getAccount().addBalance(BigInteger.valueOf(100).multiply(EXA));
+        buckets.invoke(governance, "distribute", beyondLong);
+
+        // Assert
+        assertEquals(BigInteger.valueOf(90).multiply(EXA), balanceOf(networkOwnedLiquidity));
+        assertEquals(BigInteger.valueOf(4).multiply(EXA), balanceOf(insurance));
+    }
+
+    @Test
+    public void fallback_autoDistribution() {
+        // Arrange
+        Bucket networkOwnedLiquidity = newBucket("NOL",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(10).multiply(EXA).divide(BigInteger.valueOf(100))); // 10%
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity, savings });
+        BigInteger minBalance = BigInteger.valueOf(10).multiply(EXA);
+        BigInteger interval = BigInteger.valueOf(100);
+        buckets.invoke(governance, "configureAutoDistribution", true, minBalance, interval, BigInteger.ZERO);
+        governance.addBalance(BigInteger.valueOf(1000).multiply(EXA));
+
+        // Act
+        sm.transfer(governance, buckets.getAddress(), BigInteger.valueOf(5).multiply(EXA));
+
+        // Assert
+        assertEquals(BigInteger.valueOf(5).multiply(EXA), buckets.getAccount().getBalance());
+
+        // Act
+        sm.transfer(governance, buckets.getAddress(), BigInteger.valueOf(5).multiply(EXA));
+
+        // Assert
+        assertEquals(BigInteger.ZERO, buckets.getAccount().getBalance());
+        assertEquals(BigInteger.valueOf(9).multiply(EXA), balanceOf(networkOwnedLiquidity));
+        assertEquals(BigInteger.ONE.multiply(EXA), balanceOf(savings));
+
+        // Act
+        sm.transfer(governance, buckets.getAddress(), BigInteger.valueOf(20).multiply(EXA));
+
+        // Assert
+        assertEquals(BigInteger.valueOf(20).multiply(EXA), buckets.getAccount().getBalance());
+
+        // Act
+        sm.getBlock().increase(interval.longValue());
+        sm.transfer(governance, buckets.getAddress(), BigInteger.valueOf(10).multiply(EXA));
+
+        // Assert
+        assertEquals(BigInteger.ZERO, buckets.getAccount().getBalance());
+        assertEquals(BigInteger.valueOf(36).multiply(EXA), balanceOf(networkOwnedLiquidity));
+        assertEquals(BigInteger.valueOf(4).multiply(EXA), balanceOf(savings));
+    }
+
+    @Test
+    public void fallback_autoDistributionDisabled() {
+        // Arrange
+        Bucket networkOwnedLiquidity = newBucket("NOL", EXA);
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity });
+        governance.addBalance(BigInteger.valueOf(1000).multiply(EXA));
+
+        // Act
+        sm.transfer(governance, buckets.getAddress(), BigInteger.valueOf(100).multiply(EXA));
+
+        // Assert
+        assertEquals(BigInteger.valueOf(100).multiply(EXA), buckets.getAccount().getBalance());
+        assertEquals(BigInteger.ZERO, balanceOf(networkOwnedLiquidity));
+    }
+
+    @Test
+    public void distribute_minPayout() {
+        // Arrange
+        BigInteger balance = BigInteger.valueOf(100).multiply(EXA);
+        Bucket networkOwnedLiquidity = newBucket("NOL",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(6).multiply(EXA).divide(BigInteger.valueOf(100))); // 6%
+        Bucket insurance = newBucket("Insurance", BigInteger.valueOf(4).multiply(EXA).divide(BigInteger.valueOf(100))); // 4%
+        insurance.minPayout = BigInteger.valueOf(5).multiply(EXA);
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity, savings, insurance });
+        buckets.getAccount().addBalance(balance);
+
+        // Act
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        assertEquals(BigInteger.valueOf(90).multiply(EXA), balanceOf(networkOwnedLiquidity));
+        assertEquals(BigInteger.valueOf(6).multiply(EXA), balanceOf(savings));
+        assertEquals(BigInteger.ZERO, balanceOf(insurance));
+        assertEquals(BigInteger.valueOf(4).multiply(EXA), buckets.call("getCarriedForward", insurance.name));
+        Executable distributeEmptyBalance = () -> buckets.invoke(governance, "distribute");
+        expectErrorMessage(distributeEmptyBalance, Errors.EMPTY_BALANCE);
+
+        // Act
+        buckets.getAccount().addBalance(balance);
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        assertEquals(BigInteger.valueOf(180).multiply(EXA), balanceOf(networkOwnedLiquidity));
+        assertEquals(BigInteger.valueOf(12).multiply(EXA), balanceOf(savings));
+        assertEquals(BigInteger.valueOf(8).multiply(EXA), balanceOf(insurance));
+        assertEquals(BigInteger.ZERO, buckets.call("getCarriedForward", insurance.name));
+        assertEquals(BigInteger.ZERO, buckets.getAccount().getBalance());
+    }
+
+    @Test
+    public void distribute_carryForwardDust() {
+        // Arrange
+        BigInteger third = EXA.divide(BigInteger.valueOf(3));
+        Bucket a = newBucket("A", third);
+        Bucket b = newBucket("B", third);
+        Bucket c = newBucket("C", EXA.subtract(third).subtract(third));
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { a, b, c });
+
+        // Act
+        buckets.getAccount().addBalance(BigInteger.valueOf(100));
+        buckets.invoke(governance, "distribute");
+        buckets.getAccount().addBalance(BigInteger.valueOf(200));
+        buckets.invoke(governance, "distribute");
+        buckets.getAccount().addBalance(BigInteger.ONE);
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        // The rounding dust of each round is paid out in later rounds
+        assertEquals(BigInteger.valueOf(100), balanceOf(a));
+        assertEquals(BigInteger.valueOf(100), balanceOf(b));
+        assertEquals(BigInteger.valueOf(100), balanceOf(c));
+        assertEquals(BigInteger.ONE, buckets.getAccount().getBalance());
+    }
+
+    @Test
+    public void distribute_minPayoutSharedAddress() {
+        // Arrange
+        BigInteger balance = BigInteger.valueOf(100).multiply(EXA);
+        Bucket networkOwnedLiquidity = newBucket("NOL",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(6).multiply(EXA).divide(BigInteger.valueOf(100))); // 6%
+        Bucket insurance = newBucket("Insurance", BigInteger.valueOf(4).multiply(EXA).divide(BigInteger.valueOf(100))); // 4%
+        insurance.address = savings.address;
+        savings.minPayout = BigInteger.valueOf(5).multiply(EXA);
+        insurance.minPayout = BigInteger.valueOf(10).multiply(EXA);
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity, savings, insurance });
+
+        // Act
+        buckets.getAccount().addBalance(balance);
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        // Each bucket checks its own amount against its own min payout
+        assertEquals(BigInteger.valueOf(6).multiply(EXA), balanceOf(savings));
+        assertEquals(BigInteger.ZERO, buckets.call("getCarriedForward", savings.name));
+        assertEquals(BigInteger.valueOf(4).multiply(EXA), buckets.call("getCarriedForward", insurance.name));
+
+        // Act
+        buckets.getAccount().addBalance(balance);
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        assertEquals(BigInteger.valueOf(12).multiply(EXA), balanceOf(savings));
+        assertEquals(BigInteger.valueOf(8).multiply(EXA), buckets.call("getCarriedForward", insurance.name));
+        assertEquals(BigInteger.valueOf(8).multiply(EXA), buckets.call("getClaimable", savings.address, insurance.name));
+
+        // Act
+        buckets.getAccount().addBalance(balance);
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        assertEquals(BigInteger.valueOf(30).multiply(EXA), balanceOf(savings));
+        assertEquals(BigInteger.ZERO, buckets.call("getCarriedForward", insurance.name));
+        assertEquals(BigInteger.ZERO, buckets.getAccount().getBalance());
+    }
+
+    @Test
+    public void claim_carriedForward() {
+        // Arrange
+        Bucket networkOwnedLiquidity = newBucket("NOL",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        Bucket insurance = newBucket("Insurance", BigInteger.valueOf(10).multiply(EXA).divide(BigInteger.valueOf(100))); // 10%
+        insurance.minPayout = BigInteger.valueOf(50).multiply(EXA);
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity, insurance });
+        buckets.getAccount().addBalance(BigInteger.valueOf(100).multiply(EXA));
+        buckets.invoke(governance, "distribute");
+
+        // Act
+        Executable notBucketAddress = () -> buckets.invoke(sm.getAccount(networkOwnedLiquidity.address), "claim",
+                insurance.name);
+        buckets.invoke(sm.getAccount(insurance.address), "claim", insurance.name);
+
+        // Assert
+        expectErrorMessage(notBucketAddress, Errors.NOT_BUCKET_ADDRESS);
+        assertEquals(BigInteger.valueOf(10).multiply(EXA), balanceOf(insurance));
+        assertEquals(BigInteger.ZERO, buckets.call("getCarriedForward", insurance.name));
+        assertEquals(BigInteger.ZERO, buckets.getAccount().getBalance());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void previewDistribution() {
+        // Arrange
+        BigInteger balance = BigInteger.valueOf(100).multiply(EXA);
+        Bucket networkOwnedLiquidity = newBucket("NOL",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(6).multiply(EXA).divide(BigInteger.valueOf(100))); // 6%
+        Bucket insurance = newBucket("Insurance", BigInteger.valueOf(4).multiply(EXA).divide(BigInteger.valueOf(100))); // 4%
+        insurance.minPayout = BigInteger.valueOf(5).multiply(EXA);
+
+        // Act
+        Map<String, Object> preview = (Map<String, Object>) buckets.call("previewDistribution", (Object) null);
+
+        // Assert
+        assertEquals(Errors.BUCKETS_NOT_CONFIGURED, preview.get("error"));
+
+        // Act
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity, savings, insurance });
+        preview = (Map<String, Object>) buckets.call("previewDistribution", (Object) null);
+
+        // Assert
+        assertEquals(Errors.EMPTY_BALANCE, preview.get("error"));
+
+        // Act
+        buckets.getAccount().addBalance(balance);
+        preview = (Map<String, Object>) buckets.call("previewDistribution", (Object) null);
+
+        // Assert
+        assertEquals("", preview.get("error"));
+        assertEquals(balance, preview.get("balance"));
+        assertEquals(BigInteger.valueOf(96).multiply(EXA), preview.get("paid"));
+        assertEquals(BigInteger.valueOf(4).multiply(EXA), preview.get("carriedForward"));
+        assertEquals(BigInteger.ZERO, preview.get("dust"));
+        List<Map<String, Object>> payouts = (List<Map<String, Object>>) preview.get("payouts");
+        assertEquals(3, payouts.size());
+        assertEquals(BigInteger.valueOf(90).multiply(EXA), payouts.get(0).get("amount"));
+        assertEquals(BigInteger.valueOf(6).multiply(EXA), payouts.get(1).get("amount"));
+        assertEquals(BigInteger.ZERO, payouts.get(2).get("amount"));
+        assertEquals(BigInteger.valueOf(4).multiply(EXA), payouts.get(2).get("carriedForward"));
+
+        // Act
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        assertEquals(payouts.get(0).get("amount"), balanceOf(networkOwnedLiquidity));
+        assertEquals(payouts.get(1).get("amount"), balanceOf(savings));
+        assertEquals(payouts.get(2).get("amount"), balanceOf(insurance));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void previewDistribution_claimMode() {
+        // Arrange
+        BigInteger balance = BigInteger.valueOf(100).multiply(EXA);
+        Bucket networkOwnedLiquidity = newBucket("NOL",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(6).multiply(EXA).divide(BigInteger.valueOf(100))); // 6%
+        Bucket insurance = newBucket("Insurance", BigInteger.valueOf(4).multiply(EXA).divide(BigInteger.valueOf(100))); // 4%
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity, savings, insurance });
+        buckets.invoke(governance, "setClaimMode", true);
+        buckets.getAccount().addBalance(balance);
+
+        // Act
+        Map<String, Object> preview = (Map<String, Object>) buckets.call("previewDistribution", BigInteger.ONE);
+        buckets.invoke(governance, "distribute", BigInteger.ONE);
+
+        // Assert
+        // Claim mode only moves the index, so a single call covers every bucket
+        assertEquals(true, preview.get("roundComplete"));
+        assertEquals(balance, preview.get("paid"));
+        List<Map<String, Object>> payouts = (List<Map<String, Object>>) preview.get("payouts");
+        assertEquals(3, payouts.size());
+        Map<String, Object> round = (Map<String, Object>) buckets.call("getDistributionRound");
+        assertEquals(false, round.get("active"));
+        assertEquals(payouts.get(0).get("amount"), buckets.call("getClaimable", networkOwnedLiquidity.address));
+        assertEquals(payouts.get(1).get("amount"), buckets.call("getClaimable", savings.address));
+        assertEquals(payouts.get(2).get("amount"), buckets.call("getClaimable", insurance.address));
+    }
+
+    @Test
+    public void distribute_childBuckets() {
+        // Arrange
+        BigInteger balance = BigInteger.valueOf(100).multiply(EXA);
+        Bucket proofOfLiquidity = newBucket("PoL", BigInteger.valueOf(50).multiply(EXA).divide(BigInteger.valueOf(100))); // 50%
+        proofOfLiquidity.address = null;
+        Bucket sICXPool = newChildBucket("sICX-ICX", "PoL",
+                BigInteger.valueOf(60).multiply(EXA).divide(BigInteger.valueOf(100))); // 60% of 50%
+        Bucket bnUSDPool = newChildBucket("sICX-bnUSD", "PoL",
+                BigInteger.valueOf(40).multiply(EXA).divide(BigInteger.valueOf(100))); // 40% of 50%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(50).multiply(EXA).divide(BigInteger.valueOf(100))); // 50%
+
+        // Act
+        buckets.invoke(governance, "configureBuckets",
+                (Object) new Bucket[] { proofOfLiquidity, sICXPool, bnUSDPool, savings });
+        buckets.getAccount().addBalance(balance);
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        Bucket[] configuredBuckets = (Bucket[]) buckets.call("getBuckets");
+        assertEquals(3, configuredBuckets.length);
+        assertEquals("PoL/sICX-ICX", configuredBuckets[0].name);
+        assertEquals(BigInteger.valueOf(30).multiply(EXA).divide(BigInteger.valueOf(100)), configuredBuckets[0].share);
+        assertEquals("PoL/sICX-bnUSD", configuredBuckets[1].name);
+        assertEquals(BigInteger.valueOf(20).multiply(EXA).divide(BigInteger.valueOf(100)), configuredBuckets[1].share);
+        bucketEq(savings, configuredBuckets[2]);
+
+        assertEquals(BigInteger.valueOf(30).multiply(EXA), balanceOf(sICXPool));
+        assertEquals(BigInteger.valueOf(20).multiply(EXA), balanceOf(bnUSDPool));
+        assertEquals(BigInteger.valueOf(50).multiply(EXA), balanceOf(savings));
+
+        // Act
+        Bucket newSICXPool = newChildBucket("sICX-ICX", "PoL", EXA);
+        buckets.invoke(governance, "updateBuckets", (Object) new Bucket[] { proofOfLiquidity, newSICXPool });
+
+        // Assert
+        configuredBuckets = (Bucket[]) buckets.call("getBuckets");
+        assertEquals(2, configuredBuckets.length);
+        assertEquals("PoL/sICX-ICX", configuredBuckets[0].name);
+        assertEquals(proofOfLiquidity.share, configuredBuckets[0].share);
+        bucketEq(savings, configuredBuckets[1]);
+    }
+
+    @Test
+    public void configureBuckets_invalidChildren() {
+        // Arrange
+        Bucket proofOfLiquidity = newBucket("PoL", BigInteger.valueOf(50).multiply(EXA).divide(BigInteger.valueOf(100))); // 50%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(50).multiply(EXA).divide(BigInteger.valueOf(100))); // 50%
+        Bucket child = newChildBucket("sICX-ICX", "PoL",
+                BigInteger.valueOf(60).multiply(EXA).divide(BigInteger.valueOf(100))); // 60% of 50%
+        Bucket orphan = newChildBucket("sICX-ICX", "Unknown", EXA);
+
+        // Act
+        Executable invalidChildSum = () -> buckets.invoke(governance, "configureBuckets",
+                (Object) new Bucket[] { proofOfLiquidity, child, savings });
+        Executable unknownParent = () -> buckets.invoke(governance, "configureBuckets",
+                (Object) new Bucket[] { proofOfLiquidity, orphan, savings });
+
+        // Assert
+        expectErrorMessage(invalidChildSum, Errors.INVALID_SUM);
+        expectErrorMessage(unknownParent, Errors.UNKNOWN_PARENT);
+    }
+
+    @Test
+    public void distribute_stakeAction() throws Exception {
+        // Arrange
+        MockContract<Staking> staking = new MockContract<>(StakingScoreInterface.class, Staking.class, sm, governance);
+        BigInteger balance = BigInteger.valueOf(100).multiply(EXA);
+        byte[] data = "{\"method\":\"deposit\"}".getBytes();
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(40).multiply(EXA).divide(BigInteger.valueOf(100))); // 40%
+        savings.action = Bucket.ACTION_STAKE;
+        savings.data = data;
+        Bucket insurance = newBucket("Insurance", BigInteger.valueOf(60).multiply(EXA).divide(BigInteger.valueOf(100))); // 60%
+
+        // Act
+        Executable stakingNotConfigured = () -> buckets.invoke(governance, "configureBuckets",
+                (Object) new Bucket[] { savings, insurance });
+
+        // Assert
+        expectErrorMessage(stakingNotConfigured, Errors.STAKING_NOT_CONFIGURED);
+
+        // Act
+        buckets.invoke(governance, "setStaking", staking.getAddress());
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { savings, insurance });
+        buckets.getAccount().addBalance(balance);
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        verify(staking.mock).stakeICX(savings.address, data);
+        assertEquals(BigInteger.valueOf(40).multiply(EXA), staking.account.getBalance());
+        assertEquals(BigInteger.valueOf(60).multiply(EXA), balanceOf(insurance));
+        Bucket[] configuredBuckets = (Bucket[]) buckets.call("getBuckets");
+        assertEquals(Bucket.ACTION_STAKE, configuredBuckets[0].action);
+    }
+
+    @Test
+    public void distribute_stakeActionWithTokens() throws Exception {
+        // Arrange
+        MockContract<Staking> staking = new MockContract<>(StakingScoreInterface.class, Staking.class, sm, governance);
+        MockContract<IRC2> token = new MockContract<>(IRC2ScoreInterface.class, IRC2.class, sm, governance);
+        byte[] data = "{\"method\":\"deposit\"}".getBytes();
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(40).multiply(EXA).divide(BigInteger.valueOf(100))); // 40%
+        savings.action = Bucket.ACTION_STAKE;
+        savings.data = data;
+        Bucket insurance = newBucket("Insurance", BigInteger.valueOf(60).multiply(EXA).divide(BigInteger.valueOf(100))); // 60%
+        insurance.data = data;
+        buckets.invoke(governance, "setStaking", staking.getAddress());
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { savings, insurance });
+        buckets.invoke(governance, "addToken", token.getAddress());
+        buckets.invoke(token.account, "tokenFallback", governance.getAddress(), BigInteger.valueOf(100).multiply(EXA),
+                new byte[0]);
+        buckets.getAccount().addBalance(BigInteger.valueOf(100).multiply(EXA));
+
+        // Act
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        // The staking payload is only passed to staking, the token transfer of a transfer bucket keeps its data
+        verify(staking.mock).stakeICX(savings.address, data);
+        verify(token.mock).transfer(savings.address, BigInteger.valueOf(40).multiply(EXA), null);
+        verify(token.mock).transfer(insurance.address, BigInteger.valueOf(60).multiply(EXA), data);
+    }
+
+    @Test
+    public void configureBuckets_unknownAction() {
+        // Arrange
+        Bucket networkOwnedLiquidity = newBucket("NOL", EXA);
+        networkOwnedLiquidity.action = "swap";
+
+        // Act
+        Executable unknownAction = () -> buckets.invoke(governance, "configureBuckets",
+                (Object) new Bucket[] { networkOwnedLiquidity });
+
+        // Assert
+        expectErrorMessage(unknownAction, Errors.UNKNOWN_ACTION);
+    }
+
+    @Test
+    public void distribute_tokens() throws Exception {
+        // Arrange
+        MockContract<IRC2> token = new MockContract<>(IRC2ScoreInterface.class, IRC2.class, sm, governance);
+        Account user = sm.createAccount();
+        BigInteger icxBalance = BigInteger.valueOf(100).multiply(EXA);
+        BigInteger tokenBalance = BigInteger.valueOf(1000).multiply(EXA).add(BigInteger.ONE);
+        Bucket networkOwnedLiquidity = newBucket("NOL",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(10).multiply(EXA).divide(BigInteger.valueOf(100))); // 10%
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity, savings });
+
+        // Act
+        Executable unsupportedToken = () -> buckets.invoke(token.account, "tokenFallback", user.getAddress(),
+                tokenBalance, new byte[0]);
+
+        // Assert
+        expectErrorMessage(unsupportedToken, Errors.UNSUPPORTED_TOKEN);
+
+        // Act
+        buckets.invoke(governance, "addToken", token.getAddress());
+        buckets.invoke(token.account, "tokenFallback", user.getAddress(), tokenBalance, new byte[0]);
+        buckets.getAccount().addBalance(icxBalance);
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        assertEquals(BigInteger.valueOf(90).multiply(EXA), balanceOf(networkOwnedLiquidity));
+        assertEquals(BigInteger.valueOf(10).multiply(EXA), balanceOf(savings));
+        verify(token.mock).transfer(networkOwnedLiquidity.address, BigInteger.valueOf(900).multiply(EXA), null);
+        verify(token.mock).transfer(savings.address, BigInteger.valueOf(100).multiply(EXA), null);
+        // The rounding dust stays tracked for the next distribution
+        assertEquals(BigInteger.ONE, buckets.call("getTokenBalance", token.getAddress()));
+    }
+
+    @Test
+    public void distribute_failedPayoutEscrowed() throws Exception {
+        // Arrange
+        MockContract<IRC2> token = new MockContract<>(IRC2ScoreInterface.class, IRC2.class, sm, governance);
+        BigInteger tokenBalance = BigInteger.valueOf(1000).multiply(EXA);
+        BigInteger halfBalance = BigInteger.valueOf(500).multiply(EXA);
+        Bucket networkOwnedLiquidity = newBucket("NOL", BigInteger.valueOf(50).multiply(EXA).divide(BigInteger.valueOf(100))); // 50%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(50).multiply(EXA).divide(BigInteger.valueOf(100))); // 50%
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity, savings });
+        buckets.invoke(governance, "addToken", token.getAddress());
+        buckets.invoke(token.account, "tokenFallback", governance.getAddress(), tokenBalance, new byte[0]);
+        doThrow(new IllegalStateException("Rejected")).doNothing().when(token.mock)
+                .transfer(networkOwnedLiquidity.address, halfBalance, null);
+
+        // Act
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        verify(token.mock).transfer(savings.address, halfBalance, null);
+        assertEquals(halfBalance, buckets.call("getClaimableTokens", networkOwnedLiquidity.address, token.getAddress()));
+        assertEquals(BigInteger.ZERO, buckets.call("getTokenBalance", token.getAddress()));
+
+        // Act
+        buckets.invoke(sm.getAccount(networkOwnedLiquidity.address), "claimTokens", token.getAddress());
+
+        // Assert
+        verify(token.mock, times(2)).transfer(networkOwnedLiquidity.address, halfBalance, null);
+        assertEquals(BigInteger.ZERO, buckets.call("getClaimableTokens", networkOwnedLiquidity.address, token.getAddress()));
+    }
+
+    @Test
+    public void distribute_failedIcxPayoutEscrowed() throws Exception {
+        // Arrange
+        MockContract<Receiver> receiver = new MockContract<>(ReceiverScoreInterface.class, Receiver.class, sm, governance);
+        BigInteger halfBalance = BigInteger.valueOf(50).multiply(EXA);
+        Bucket networkOwnedLiquidity = newBucket("NOL", BigInteger.valueOf(50).multiply(EXA).divide(BigInteger.valueOf(100))); // 50%
+        networkOwnedLiquidity.address = receiver.getAddress();
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(50).multiply(EXA).divide(BigInteger.valueOf(100))); // 50%
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity, savings });
+        buckets.getAccount().addBalance(BigInteger.valueOf(100).multiply(EXA));
+        doThrow(new IllegalStateException("Rejected")).doNothing().when(receiver.mock).fallback();
+
+        // Act
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        assertEquals(halfBalance, balanceOf(savings));
+        assertEquals(BigInteger.ZERO, receiver.account.getBalance());
+        assertEquals(halfBalance, buckets.call("getClaimable", networkOwnedLiquidity.address));
+        assertEquals(halfBalance, buckets.getAccount().getBalance());
+
+        // Act
+        buckets.invoke(receiver.account, "claim");
+
+        // Assert
+        verify(receiver.mock, times(2)).fallback();
+        assertEquals(halfBalance, receiver.account.getBalance());
+        assertEquals(BigInteger.ZERO, buckets.call("getClaimable", networkOwnedLiquidity.address));
+        assertEquals(BigInteger.ZERO, buckets.getAccount().getBalance());
+    }
+
+    @Test
+    public void distribute_tokensOnly() throws Exception {
+        // Arrange
+        MockContract<IRC2> token = new MockContract<>(IRC2ScoreInterface.class, IRC2.class, sm, governance);
+        BigInteger tokenBalance = BigInteger.valueOf(1000).multiply(EXA);
+        Bucket networkOwnedLiquidity = newBucket("NOL", EXA);
+        buckets.invoke(governance, "configureBuckets", (Object) new Bucket[] { networkOwnedLiquidity });
+        buckets.invoke(governance, "addToken", token.getAddress());
+        buckets.invoke(token.account, "tokenFallback", governance.getAddress(), tokenBalance, new byte[0]);
+
+        // Act
+        buckets.invoke(governance, "distribute");
+
+        // Assert
+        verify(token.mock).transfer(networkOwnedLiquidity.address, tokenBalance, null);
+        assertEquals(BigInteger.ZERO, buckets.call("getTokenBalance", token.getAddress()));
+    }
+
+    @Test
+    public void update_migratesBaselineBuckets() throws Exception {
+        // Arrange
+        Bucket networkOwnedLiquidity = newBucket("NOL", BigInteger.valueOf(50).multiply(EXA).divide(BigInteger.valueOf(100))); // 50%
+        Bucket savings = newBucket("Savings", BigInteger.valueOf(25).multiply(EXA).divide(BigInteger.valueOf(100))); // 25%
+        // The baseline configureBuckets accepted duplicate names
+        Bucket duplicate = newBucket("Savings", BigInteger.valueOf(25).multiply(EXA).divide(BigInteger.valueOf(100))); // 25%
+        Score legacy = sm.deploy(governance, LegacyBuckets.class,
+                (Object) new Bucket[] { networkOwnedLiquidity, savings, duplicate });
+
+        // Act
+        legacy.invoke(governance, "update");
+        legacy.setInstance(LegacyBuckets.updated);
+        legacy.getAccount().addBalance(BigInteger.valueOf(100).multiply(EXA));
+        legacy.invoke(governance, "distribute");
+
+        // Assert
+        Bucket[] migrated = (Bucket[]) legacy.call("getBuckets");
+        assertEquals(3, migrated.length);
+        bucketEq(networkOwnedLiquidity, migrated[0]);
+        bucketEq(savings, migrated[1]);
+        assertEquals("Savings_2", migrated[2].name);
+        assertEquals(duplicate.address, migrated[2].address);
+        assertEquals(duplicate.share, migrated[2].share);
+        assertEquals(BigInteger.valueOf(50).multiply(EXA), balanceOf(networkOwnedLiquidity));
+        assertEquals(BigInteger.valueOf(25).multiply(EXA), balanceOf(savings));
+        assertEquals(BigInteger.valueOf(25).multiply(EXA), balanceOf(duplicate));
+    }
+
+    @Test
+    public void testPermissions() {
+        _testPermission("setClaimMode", Checks.Errors.ONLY_OWNER, true);
+        _testPermission("recoverEmissionsDust", Checks.Errors.ONLY_OWNER);
+        _testPermission("updateBuckets", Checks.Errors.ONLY_OWNER, (Object) new Bucket[0]);
+        _testPermission("configureAutoDistribution", Checks.Errors.ONLY_OWNER, true, BigInteger.ONE, BigInteger.ONE,
+                BigInteger.ONE);
+        _testPermission("addToken", Checks.Errors.ONLY_OWNER, sm.createAccount().getAddress());
+        _testPermission("removeToken", Checks.Errors.ONLY_OWNER, sm.createAccount().getAddress());
+        _testPermission("setStaking", Checks.Errors.ONLY_OWNER, sm.createAccount().getAddress());
+        _testPermission("stageBuckets", Checks.Errors.ONLY_OWNER, (Object) new Bucket[0]);
+        _testPermission("commitBuckets", Checks.Errors.ONLY_OWNER);
+        _testPermission("discardStagedBuckets", Checks.Errors.ONLY_OWNER);
+    }
+
+    private void _testPermission(String method, String error, Object... params) {
+        Account dummy = sm.createAccount();
+        Executable call = () -> buckets.invoke(dummy, method, params);
+        expectErrorMessage(call, error);
+    }
+
     public BigInteger balanceOf(Bucket bucket) {
         return sm.getAccount(bucket.address).getBalance();
     }
@@ -190,6 +1155,13 @@ public class BucketsTest extends TestBase {
         return bucket;
     }
 
+    public Bucket newChildBucket(String name, String parent, BigInteger share) {
+        Bucket bucket = newBucket(name, share);
+        bucket.parent = parent;
+
+        return bucket;
+    }
+
     public void bucketEq(Bucket a, Bucket b) {
         assertEquals(a.name, b.name);
         assertEquals(a.share, b.share);
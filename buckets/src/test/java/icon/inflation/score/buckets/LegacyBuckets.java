@@ -0,0 +1,60 @@
+package icon.inflation.score.buckets;
+
+import java.math.BigInteger;
+
+import icon.inflation.score.structs.Bucket;
+import score.Address;
+import score.ArrayDB;
+import score.Context;
+import score.ObjectReader;
+import score.ObjectWriter;
+import score.annotation.External;
+
+/**
+ * The storage of Buckets before the versioned bucket configuration, to test the migration
+ * that runs when the contract is updated.
+ */
+public class LegacyBuckets {
+    public static Buckets updated;
+
+    private final ArrayDB<LegacyBucket> buckets = Context.newArrayDB("BUCKETS", LegacyBucket.class);
+
+    public LegacyBuckets(Bucket[] _buckets) {
+        for (Bucket bucket : _buckets) {
+            LegacyBucket legacyBucket = new LegacyBucket();
+            legacyBucket.name = bucket.name;
+            legacyBucket.address = bucket.address;
+            legacyBucket.share = bucket.share;
+            buckets.add(legacyBucket);
+        }
+    }
+
+    @External
+    public void update() {
+        updated = new Buckets();
+    }
+
+    public static class LegacyBucket {
+        public String name;
+        public Address address;
+        public BigInteger share;
+
+        public static void writeObject(ObjectWriter writer, LegacyBucket bucket) {
+            writer.beginList(3);
+            writer.write(bucket.name);
+            writer.write(bucket.address);
+            writer.write(bucket.share);
+            writer.end();
+        }
+
+        public static LegacyBucket readObject(ObjectReader reader) {
+            LegacyBucket bucket = new LegacyBucket();
+            reader.beginList();
+            bucket.name = reader.readString();
+            bucket.address = reader.readAddress();
+            bucket.share = reader.readBigInteger();
+            reader.end();
+            return bucket;
+        }
+    }
+}
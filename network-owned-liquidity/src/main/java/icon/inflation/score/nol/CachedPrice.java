@@ -0,0 +1,43 @@
+package icon.inflation.score.nol;
+
+import java.math.BigInteger;
+
+import score.ObjectReader;
+import score.ObjectWriter;
+
+/**
+ * A USD price from the Balanced oracle together with the block it was read in, so that
+ * both are read and written with a single storage access.
+ */
+public class CachedPrice {
+    public BigInteger price;
+    public BigInteger block;
+
+    public CachedPrice() {
+    }
+
+    public CachedPrice(BigInteger price, BigInteger block) {
+        this.price = price;
+        this.block = block;
+    }
+
+    public static void writeObject(ObjectWriter writer, CachedPrice cachedPrice) {
+        cachedPrice.writeObject(writer);
+    }
+
+    public static CachedPrice readObject(ObjectReader reader) {
+        CachedPrice cachedPrice = new CachedPrice();
+        reader.beginList();
+        cachedPrice.price = reader.readBigInteger();
+        cachedPrice.block = reader.readBigInteger();
+        reader.end();
+        return cachedPrice;
+    }
+
+    public void writeObject(ObjectWriter writer) {
+        writer.beginList(2);
+        writer.write(this.price);
+        writer.write(this.block);
+        writer.end();
+    }
+}
@@ -5,8 +5,11 @@ public class Errors {
     public static final String TOKEN_FALLBACK_DATA_EMPTY = "Token Fallback: Data can't be empty";
     public static final String TOKEN_FALLBACK_ZERO_VALUE = "Token Fallback: Value can't be zero";
     public static final String IRC31_METHOD_NOT_FOUND = "IRC31: method not found";
+    public static final String BATCH_LENGTH_MISMATCH = "IRC31: ids and values must have the same length";
+    public static final String QUOTE_LENGTH_MISMATCH = "pids and amounts must have the same length";
     public static final String ORDER_LIMIT_REACHED = "Order is above configured limit";
     public static final String LP_OVER_SLIPPAGE_LIMIT = "The price of the liquidity pool is to far off the oracle price of supplied assets";
     public static final String INVALID_PERIOD = "Order period must be between 1 day and 3 months";
     public static final String NO_ORDER_EXISTS = "No order exist for this pool ID";
+    public static final String NO_POOL_METADATA = "No metadata cached for this pool ID";
 }
@@ -1,14 +1,11 @@
 package icon.inflation.score.nol;
 
 import java.math.BigInteger;
+import java.util.List;
 import java.util.Map;
 
-import com.eclipsesource.json.Json;
-import com.eclipsesource.json.JsonObject;
-
 import icon.inflation.score.interfaces.INetworkOwnedLiquidity;
 import icon.inflation.score.structs.LiquidityOrder;
-import icon.inflation.score.util.DBUtils;
 import score.Address;
 import score.ArrayDB;
 import score.Context;
@@ -18,6 +15,8 @@ import score.annotation.External;
 import score.annotation.Optional;
 import score.annotation.Payable;
 import score.annotation.EventLog;
+import scorex.util.ArrayList;
+import scorex.util.HashMap;
 
 import static icon.inflation.score.util.Checks.only;
 import static icon.inflation.score.util.Checks.onlyOwner;
@@ -25,16 +24,26 @@ import static icon.inflation.score.util.Checks.validatePoints;
 import static icon.inflation.score.util.Constants.EXA;
 import static icon.inflation.score.util.Constants.BLOCKS_IN_A_MONTH;
 import static icon.inflation.score.util.Constants.POINTS;
-import static icon.inflation.score.util.Math.pow;
 
 public class NetworkOwnedLiquidity implements INetworkOwnedLiquidity {
     public static final String NAME = "ICON Network-owned Liquidity";
 
-    public static final DictDB<BigInteger, LiquidityOrder> orders = Context.newDictDB("ORDERS", LiquidityOrder.class);
-    public static final ArrayDB<BigInteger> ordersList = Context.newArrayDB("ORDERS_LIST", BigInteger.class);
+    public static final OrderBook orderBook = new OrderBook("ORDER_BOOK");
+    // ICX invested by all orders, including removed ones
     public static final VarDB<BigInteger> investedEmissions = Context.newVarDB("INVESTED_EMISSIONS", BigInteger.class);
     public static final VarDB<BigInteger> orderPeriod = Context.newVarDB("ORDER_PERIOD", BigInteger.class); // Microseconds
 
+    // Pool tokens, symbols and units, cached when an order is configured
+    public static final DictDB<BigInteger, PoolMetadata> poolMetadata = Context.newDictDB("POOL_METADATA", PoolMetadata.class);
+
+    // Market data cached for the block it was read in
+    public static final DictDB<BigInteger, PoolStats> poolStatsCache = Context.newDictDB("POOL_STATS_CACHE", PoolStats.class);
+    public static final DictDB<String, CachedPrice> priceCache = Context.newDictDB("USD_PRICE_CACHE", CachedPrice.class);
+
+    // Orders before the order book, only read to migrate them
+    public static final DictDB<BigInteger, LiquidityOrder> orders = Context.newDictDB("ORDERS", LiquidityOrder.class);
+    public static final ArrayDB<BigInteger> ordersList = Context.newArrayDB("ORDERS_LIST", BigInteger.class);
+
     public static final VarDB<Address> balancedDex = Context.newVarDB("BALANCED_DEX_ADDRESS", Address.class);
     public static final VarDB<Address> balancedOracle = Context.newVarDB("BALANCED_ORACLE_ADDRESS", Address.class);
 
@@ -55,6 +64,30 @@ public class NetworkOwnedLiquidity implements INetworkOwnedLiquidity {
             swapReward.set(DEFAULT_SWAP_REWARDS);
             lPSlippage.set(DEFAULT_LP_SLIPPAGE);
         }
+
+        migrateOrders();
+    }
+
+    private void migrateOrders() {
+        int numberOfOrders = ordersList.size();
+        if (numberOfOrders == 0) {
+            return;
+        }
+
+        BigInteger period = orderPeriod.get();
+        for (int i = 0; i < numberOfOrders; i++) {
+            BigInteger pid = ordersList.get(i);
+            LiquidityOrder order = orders.get(pid);
+            OrderRecord record = new OrderRecord(pid);
+            record.setLimit(order.limit, period);
+            record.lastBlock = order.lastPurchaseBlock.longValue();
+            record.remaining = order.remaining;
+            orderBook.set(record);
+        }
+
+        for (int i = 0; i < numberOfOrders; i++) {
+            orders.set(ordersList.pop(), null);
+        }
     }
 
     @EventLog(indexed = 1)
@@ -68,13 +101,10 @@ public class NetworkOwnedLiquidity implements INetworkOwnedLiquidity {
 
     @External(readonly = true)
     public LiquidityOrder[] getOrders() {
-        int numberOfOrders = ordersList.size();
+        int numberOfOrders = orderBook.size();
         LiquidityOrder[] orderData = new LiquidityOrder[numberOfOrders];
         for (int i = 0; i < numberOfOrders; i++) {
-            BigInteger pid = ordersList.get(i);
-            LiquidityOrder order = orders.get(pid);
-            order.pid = pid;
-            orderData[i] = order;
+            orderData[i] = orderBook.at(i).toLiquidityOrder();
         }
 
         return orderData;
@@ -88,6 +118,7 @@ public class NetworkOwnedLiquidity implements INetworkOwnedLiquidity {
     @External
     public void setOrderPeriod(BigInteger _orderPeriod) {
         onlyOwner();
+        // Dev note: the rate of each order is recomputed when the order is next read
         orderPeriod.set(_orderPeriod);
     }
 
@@ -145,27 +176,72 @@ public class NetworkOwnedLiquidity implements INetworkOwnedLiquidity {
     @External
     public void configureOrder(BigInteger pid, BigInteger limit) {
         onlyOwner();
-        LiquidityOrder order = orders.getOrDefault(pid, new LiquidityOrder());
-        order.limit = limit;
-        orders.set(pid, order);
-        if (!DBUtils.arrayDbContains(ordersList, pid)) {
-            ordersList.add(pid);
+        OrderRecord record = orderBook.get(pid);
+        if (record == null) {
+            record = new OrderRecord(pid);
         }
+
+        record.setLimit(limit, orderPeriod.get());
+        orderBook.set(record);
+
+        if (poolMetadata.get(pid) == null) {
+            poolMetadata.set(pid, PoolMetadata.fetch(getBalancedDex(), pid));
+        }
+    }
+
+    @External(readonly = true)
+    public Map<String, Object> getPoolMetadata(BigInteger pid) {
+        PoolMetadata metadata = poolMetadata.get(pid);
+        Context.require(metadata != null, Errors.NO_POOL_METADATA);
+        return Map.of(
+                "base_token", metadata.baseToken,
+                "quote_token", metadata.quoteToken,
+                "base_symbol", metadata.baseSymbol,
+                "quote_symbol", metadata.quoteSymbol,
+                "base_unit", metadata.baseUnit,
+                "quote_unit", metadata.quoteUnit);
+    }
+
+    @External
+    public void refreshPoolMetadata(BigInteger pid) {
+        onlyOwner();
+        poolMetadata.set(pid, PoolMetadata.fetch(getBalancedDex(), pid));
+    }
+
+    @External(readonly = true)
+    public BigInteger getAvailableAmount(BigInteger pid) {
+        OrderRecord record = orderBook.get(pid);
+        Context.require(record != null, Errors.NO_ORDER_EXISTS);
+        return accruedAmount(record, orderPeriod.get());
+    }
+
+    @External(readonly = true)
+    public Map<String, BigInteger> getAvailableAmounts() {
+        Map<String, BigInteger> amounts = new HashMap<>();
+        BigInteger period = orderPeriod.get();
+        int numberOfOrders = orderBook.size();
+        for (int i = 0; i < numberOfOrders; i++) {
+            OrderRecord record = orderBook.at(i);
+            amounts.put(record.pid.toString(), accruedAmount(record, period));
+        }
+
+        return amounts;
     }
 
     @External
     public void setAvailableAmount(BigInteger pid, BigInteger amount) {
         onlyOwner();
-        LiquidityOrder order = orders.get(pid);
-        order.remaining = amount;
-        orders.set(pid, order);
+        OrderRecord record = orderBook.get(pid);
+        Context.require(record != null, Errors.NO_ORDER_EXISTS);
+        record.remaining = amount;
+        orderBook.set(record);
     }
 
     @External
     public void removeOrder(BigInteger pid) {
         onlyOwner();
-        DBUtils.removeFromArraydb(ordersList, pid);
-        orders.set(pid, null);
+        orderBook.remove(pid);
+        poolMetadata.set(pid, null);
     }
 
     @External
@@ -188,24 +264,48 @@ public class NetworkOwnedLiquidity implements INetworkOwnedLiquidity {
 
     @External(readonly = true)
     public BigInteger calculateICXReward(BigInteger pid, BigInteger amount) {
-        @SuppressWarnings("unchecked")
-        Map<String, Object> stats = (Map<String, Object>) Context.call(getBalancedDex(), "getPoolStats", pid);
-        BigInteger base = (BigInteger) stats.get("base");
-        BigInteger quote = (BigInteger) stats.get("quote");
-        BigInteger totalSupply = (BigInteger) stats.get("total_supply");
-
-        Address baseToken = (Address) stats.get("base_token");
-        Address quoteToken = (Address) stats.get("quote_token");
-        String baseSymbol = Context.call(String.class, baseToken, "symbol");
-        String quoteSymbol = Context.call(String.class, quoteToken, "symbol");
-
-        Address oracle = getBalancedOracle();
-        BigInteger baseUSDPrice = Context.call(BigInteger.class, oracle, "getLastPriceInUSD", baseSymbol);
-        BigInteger quoteUSDPrice = Context.call(BigInteger.class, oracle, "getLastPriceInUSD", quoteSymbol);
-        BigInteger baseDecimals = (BigInteger) stats.get("base_decimals");
-        BigInteger quoteDecimals = (BigInteger) stats.get("quote_decimals");
-        baseDecimals = pow(BigInteger.TEN, baseDecimals.intValue());
-        quoteDecimals = pow(BigInteger.TEN, quoteDecimals.intValue());
+        return computeICXReward(pid, amount, false);
+    }
+
+    @External(readonly = true)
+    public List<Map<String, Object>> calculateICXRewards(BigInteger[] pids, BigInteger[] amounts) {
+        Context.require(pids.length == amounts.length, Errors.QUOTE_LENGTH_MISMATCH);
+        Map<String, BigInteger> prices = new HashMap<>();
+        List<Map<String, Object>> quotes = new ArrayList<>();
+        BigInteger period = orderPeriod.get();
+        for (int i = 0; i < pids.length; i++) {
+            RewardQuote quote = quoteICXReward(pids[i], amounts[i], false, null, prices);
+            OrderRecord record = orderBook.get(pids[i]);
+            quotes.add(Map.of(
+                    "pid", pids[i],
+                    "reward", quote.reward,
+                    "slippage", quote.slippage,
+                    "remaining", record == null ? BigInteger.ZERO : accruedAmount(record, period)));
+        }
+
+        return quotes;
+    }
+
+    private BigInteger computeICXReward(BigInteger pid, BigInteger amount, boolean cache) {
+        return quoteICXReward(pid, amount, cache, getLPSlippage(), new HashMap<>()).reward;
+    }
+
+    /**
+     * @param maxSlippage Slippage the quote has to be within, or null to quote any pool
+     * @param prices      USD prices already read by the caller, shared between quotes
+     */
+    private RewardQuote quoteICXReward(BigInteger pid, BigInteger amount, boolean cache, BigInteger maxSlippage,
+            Map<String, BigInteger> prices) {
+        PoolMetadata metadata = getPoolMetadata(pid, cache);
+        PoolStats stats = getPoolStats(pid, cache);
+        BigInteger base = stats.base;
+        BigInteger quote = stats.quote;
+        BigInteger totalSupply = stats.totalSupply;
+
+        BigInteger baseUSDPrice = getPriceInUSD(metadata.baseSymbol, cache, prices);
+        BigInteger quoteUSDPrice = getPriceInUSD(metadata.quoteSymbol, cache, prices);
+        BigInteger baseDecimals = metadata.baseUnit;
+        BigInteger quoteDecimals = metadata.quoteUnit;
 
         BigInteger baseAmount = base.multiply(amount).divide(totalSupply);
         BigInteger quoteAmount = quote.multiply(amount).divide(totalSupply);
@@ -219,33 +319,47 @@ public class NetworkOwnedLiquidity implements INetworkOwnedLiquidity {
         BigInteger absDiff = baseAmountInUSD.subtract(quoteAmountInUSD).abs().multiply(POINTS);
         BigInteger avg = baseAmountInUSD.add(quoteAmountInUSD).divide(BigInteger.TWO);
         BigInteger slippage = absDiff.divide(avg);
-        Context.require(slippage.compareTo(getLPSlippage()) <= 0, Errors.LP_OVER_SLIPPAGE_LIMIT);
+        Context.require(maxSlippage == null || slippage.compareTo(maxSlippage) <= 0, Errors.LP_OVER_SLIPPAGE_LIMIT);
 
         BigInteger percentageReward = POINTS.add(getSwapReward());
         BigInteger totalUSDValue = baseAmountInUSD.add(quoteAmountInUSD);
         BigInteger totalUSDReward = totalUSDValue.multiply(percentageReward).divide(POINTS);
 
-        BigInteger ICXPriceInUSD = Context.call(BigInteger.class, oracle, "getLastPriceInUSD", "ICX");
+        BigInteger ICXPriceInUSD = getPriceInUSD("ICX", cache, prices);
         BigInteger ICXReward = totalUSDReward.multiply(EXA).divide(ICXPriceInUSD);
 
-        return ICXReward;
+        return new RewardQuote(ICXReward, slippage);
     }
 
     @External
     public void onIRC31Received(Address _operator, Address _from, BigInteger _id, BigInteger _value, byte[] _data) {
         only(getBalancedDex());
-        String unpackedData = new String(_data);
         Context.require(_value.compareTo(BigInteger.ZERO) > 0, Errors.TOKEN_FALLBACK_ZERO_VALUE);
-        Context.require(!unpackedData.equals(""), Errors.TOKEN_FALLBACK_DATA_EMPTY);
+        switch (TransferData.method(_data)) {
+            case TransferData.DEPOSIT:
+                return;
+            case TransferData.SWAP:
+                swapLPTokens(_from, _id, _value);
+                return;
+            default:
+                Context.revert(Errors.IRC31_METHOD_NOT_FOUND);
+        }
+    }
 
-        JsonObject json = Json.parse(unpackedData).asObject();
+    @External
+    public void onIRC31BatchReceived(Address _operator, Address _from, BigInteger[] _ids, BigInteger[] _values,
+            byte[] _data) {
+        only(getBalancedDex());
+        Context.require(_ids.length == _values.length, Errors.BATCH_LENGTH_MISMATCH);
+        for (BigInteger value : _values) {
+            Context.require(value.compareTo(BigInteger.ZERO) > 0, Errors.TOKEN_FALLBACK_ZERO_VALUE);
+        }
 
-        String method = json.get("method").asString();
-        switch (method) {
-            case "deposit":
+        switch (TransferData.method(_data)) {
+            case TransferData.DEPOSIT:
                 return;
-            case "swap":
-                swapLPTokens(_from, _id, _value);
+            case TransferData.SWAP:
+                swapLPTokens(_from, _ids, _values);
                 return;
             default:
                 Context.revert(Errors.IRC31_METHOD_NOT_FOUND);
@@ -261,28 +375,121 @@ public class NetworkOwnedLiquidity implements INetworkOwnedLiquidity {
     }
 
     private void swapLPTokens(Address from, BigInteger id, BigInteger value) {
-        LiquidityOrder order = orders.get(id);
-        Context.require(order != null, Errors.NO_ORDER_EXISTS);
-        BigInteger reward = calculateICXReward(id, value);
-        order = validateOrder(order, reward);
-        orders.set(id, order);
-        investedEmissions.set(getInvestedEmissions().add(reward));
+        BigInteger reward = purchase(id, value);
 
         Context.transfer(from, reward);
         LiquidityPurchased(id, value, reward);
     }
 
-    private LiquidityOrder validateOrder(LiquidityOrder order, BigInteger payoutAmount) {
+    /**
+     * Prices and fills every pid before paying out the combined reward in a single transfer.
+     * Pool stats and prices are shared through the block cache, so a repeated pid or quote
+     * symbol is only queried once.
+     */
+    private void swapLPTokens(Address from, BigInteger[] ids, BigInteger[] values) {
+        BigInteger[] rewards = new BigInteger[ids.length];
+        BigInteger totalReward = BigInteger.ZERO;
+        for (int i = 0; i < ids.length; i++) {
+            rewards[i] = purchase(ids[i], values[i]);
+            totalReward = totalReward.add(rewards[i]);
+        }
+
+        Context.transfer(from, totalReward);
+        for (int i = 0; i < ids.length; i++) {
+            LiquidityPurchased(ids[i], values[i], rewards[i]);
+        }
+    }
+
+    /**
+     * @return Returns the ICX reward for the LP tokens, after taking it from the order
+     */
+    private BigInteger purchase(BigInteger id, BigInteger value) {
+        OrderRecord record = orderBook.get(id);
+        Context.require(record != null, Errors.NO_ORDER_EXISTS);
+        BigInteger reward = computeICXReward(id, value, true);
+        validateOrder(record, reward);
+        orderBook.set(record);
+
+        return reward;
+    }
+
+    private PoolMetadata getPoolMetadata(BigInteger pid, boolean cache) {
+        PoolMetadata metadata = poolMetadata.get(pid);
+        if (metadata != null) {
+            return metadata;
+        }
+
+        // Dev note: Only pools without an order, or orders configured before metadata was
+        // cached, end up here
+        metadata = PoolMetadata.fetch(getBalancedDex(), pid);
+        if (cache) {
+            poolMetadata.set(pid, metadata);
+        }
+
+        return metadata;
+    }
+
+    /**
+     * Pool stats are cached for the rest of the block, so that following swaps in the same
+     * block do not query the dex and the pool tokens again. Readonly calls only use the
+     * cache but can not fill it.
+     */
+    private PoolStats getPoolStats(BigInteger pid, boolean cache) {
         BigInteger height = BigInteger.valueOf(Context.getBlockHeight());
-        BigInteger blockDiff = height.subtract(order.lastPurchaseBlock);
-        BigInteger rate = order.limit.divide(orderPeriod.get());
-        BigInteger addedAmount = blockDiff.multiply(rate);
+        PoolStats stats = poolStatsCache.get(pid);
+        if (stats != null && stats.block.equals(height)) {
+            return stats;
+        }
+
+        stats = PoolStats.fetch(getBalancedDex(), pid);
+        if (cache) {
+            poolStatsCache.set(pid, stats);
+        }
+
+        return stats;
+    }
+
+    private BigInteger getPriceInUSD(String symbol, boolean cache, Map<String, BigInteger> prices) {
+        BigInteger price = prices.get(symbol);
+        if (price == null) {
+            price = getPriceInUSD(symbol, cache);
+            prices.put(symbol, price);
+        }
 
-        order.remaining = order.limit.min(addedAmount.add(order.remaining));
-        Context.require(order.remaining.compareTo(payoutAmount) >= 0, Errors.ORDER_LIMIT_REACHED);
-        order.remaining = order.remaining.subtract(payoutAmount);
-        order.lastPurchaseBlock = height;
+        return price;
+    }
+
+    private BigInteger getPriceInUSD(String symbol, boolean cache) {
+        BigInteger height = BigInteger.valueOf(Context.getBlockHeight());
+        CachedPrice cached = priceCache.get(symbol);
+        if (cached != null && height.equals(cached.block)) {
+            return cached.price;
+        }
+
+        BigInteger price = Context.call(BigInteger.class, getBalancedOracle(), "getLastPriceInUSD", symbol);
+        if (cache) {
+            priceCache.set(symbol, new CachedPrice(price, height));
+        }
+
+        return price;
+    }
+
+    /**
+     * @return Returns the amount the order can pay out in the current block
+     */
+    private BigInteger accruedAmount(OrderRecord record, BigInteger period) {
+        long blockDiff = Context.getBlockHeight() - record.lastBlock;
+        BigInteger addedAmount = record.rate(period).multiply(BigInteger.valueOf(blockDiff));
+
+        return record.limit.min(addedAmount.add(record.remaining));
+    }
 
-        return order;
+    private void validateOrder(OrderRecord record, BigInteger payoutAmount) {
+        BigInteger available = accruedAmount(record, orderPeriod.get());
+        Context.require(available.compareTo(payoutAmount) >= 0, Errors.ORDER_LIMIT_REACHED);
+        record.remaining = available.subtract(payoutAmount);
+        record.lastBlock = Context.getBlockHeight();
+        record.invested = record.invested.add(payoutAmount);
+        investedEmissions.set(getInvestedEmissions().add(payoutAmount));
     }
 }
@@ -0,0 +1,54 @@
+package icon.inflation.score.nol;
+
+import java.math.BigInteger;
+
+import icon.inflation.score.util.EnumerableMap;
+
+/**
+ * Order records keyed by pid, with O(1) lookup, upsert and remove.
+ *
+ * Records are kept in an EnumerableMap so that listing the orders costs one read per order.
+ * A record read through get or at remembers its position, so writing it back does not
+ * read the index again.
+ */
+public class OrderBook {
+    private final EnumerableMap<BigInteger, OrderRecord> records;
+
+    public OrderBook(String id) {
+        records = new EnumerableMap<>(id, id + "_INDEX", OrderRecord.class);
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    public OrderRecord at(int index) {
+        OrderRecord record = records.at(index);
+        record.position = index + 1;
+        return record;
+    }
+
+    public OrderRecord get(BigInteger pid) {
+        int index = records.indexOf(pid);
+        if (index < 0) {
+            return null;
+        }
+
+        return at(index);
+    }
+
+    public void set(OrderRecord record) {
+        if (record.position == 0) {
+            record.position = records.add(record) + 1;
+        } else {
+            records.setAt(record.position - 1, record);
+        }
+    }
+
+    /**
+     * @return Returns the removed record, or null if there is no order for the pid
+     */
+    public OrderRecord remove(BigInteger pid) {
+        return records.remove(pid);
+    }
+}
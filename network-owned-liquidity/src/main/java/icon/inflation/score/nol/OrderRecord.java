@@ -0,0 +1,95 @@
+package icon.inflation.score.nol;
+
+import java.math.BigInteger;
+
+import icon.inflation.score.structs.LiquidityOrder;
+import icon.inflation.score.util.EnumerableMap;
+import score.Context;
+import score.ObjectReader;
+import score.ObjectWriter;
+
+/**
+ * Everything a swap needs to know about the order of a pid, stored as a single record.
+ * The rate per block is recomputed when the limit changes, or when the record is next read
+ * after the order period changed, and invested is the ICX paid out by this order.
+ */
+public class OrderRecord implements EnumerableMap.Entry<BigInteger> {
+    public BigInteger pid;
+    public BigInteger limit;
+    public BigInteger ratePerBlock;
+    // Order period the rate per block was computed with
+    public BigInteger period;
+    public long lastBlock;
+    public BigInteger remaining;
+    public BigInteger invested;
+    // Position + 1 in the order book, not stored
+    int position;
+
+    public OrderRecord() {
+    }
+
+    public OrderRecord(BigInteger pid) {
+        this.pid = pid;
+        this.lastBlock = Context.getBlockHeight();
+        this.remaining = BigInteger.ZERO;
+        this.invested = BigInteger.ZERO;
+    }
+
+    public BigInteger key() {
+        return pid;
+    }
+
+    public void setLimit(BigInteger limit, BigInteger orderPeriod) {
+        this.limit = limit;
+        this.period = orderPeriod;
+        this.ratePerBlock = limit.divide(orderPeriod);
+    }
+
+    public BigInteger rate(BigInteger orderPeriod) {
+        if (!orderPeriod.equals(this.period)) {
+            setLimit(this.limit, orderPeriod);
+        }
+
+        return this.ratePerBlock;
+    }
+
+    public LiquidityOrder toLiquidityOrder() {
+        LiquidityOrder order = new LiquidityOrder();
+        order.pid = this.pid;
+        order.limit = this.limit;
+        order.lastPurchaseBlock = BigInteger.valueOf(this.lastBlock);
+        order.remaining = this.remaining;
+        order.invested = this.invested;
+        return order;
+    }
+
+    public static void writeObject(ObjectWriter writer, OrderRecord record) {
+        record.writeObject(writer);
+    }
+
+    public static OrderRecord readObject(ObjectReader reader) {
+        OrderRecord record = new OrderRecord();
+        reader.beginList();
+        record.pid = reader.readBigInteger();
+        record.limit = reader.readBigInteger();
+        record.ratePerBlock = reader.readBigInteger();
+        record.period = reader.readBigInteger();
+        record.lastBlock = reader.readLong();
+        record.remaining = reader.readBigInteger();
+        record.invested = reader.readBigInteger();
+        reader.end();
+        return record;
+    }
+
+    public void writeObject(ObjectWriter writer) {
+        writer.beginList(7);
+        writer.write(this.pid);
+        writer.write(this.limit);
+        writer.write(this.ratePerBlock);
+        writer.write(this.period);
+        writer.write(this.lastBlock);
+        writer.write(this.remaining);
+        writer.write(this.invested);
+        writer.end();
+    }
+}
@@ -0,0 +1,67 @@
+package icon.inflation.score.nol;
+
+import java.math.BigInteger;
+import java.util.Map;
+
+import score.Address;
+import score.Context;
+import score.ObjectReader;
+import score.ObjectWriter;
+
+import static icon.inflation.score.util.Math.pow;
+
+/**
+ * The parts of a Balanced dex pool that never change for a pid: the pool tokens, their
+ * symbols as used by the oracle and one unit of each token.
+ */
+public class PoolMetadata {
+    public Address baseToken;
+    public Address quoteToken;
+    public String baseSymbol;
+    public String quoteSymbol;
+    // 10^decimals
+    public BigInteger baseUnit;
+    public BigInteger quoteUnit;
+
+    public static PoolMetadata fetch(Address dex, BigInteger pid) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> stats = (Map<String, Object>) Context.call(dex, "getPoolStats", pid);
+        PoolMetadata metadata = new PoolMetadata();
+        metadata.baseToken = (Address) stats.get("base_token");
+        metadata.quoteToken = (Address) stats.get("quote_token");
+        metadata.baseSymbol = Context.call(String.class, metadata.baseToken, "symbol");
+        metadata.quoteSymbol = Context.call(String.class, metadata.quoteToken, "symbol");
+        metadata.baseUnit = pow(BigInteger.TEN, ((BigInteger) stats.get("base_decimals")).intValue());
+        metadata.quoteUnit = pow(BigInteger.TEN, ((BigInteger) stats.get("quote_decimals")).intValue());
+
+        return metadata;
+    }
+
+    public static void writeObject(ObjectWriter writer, PoolMetadata metadata) {
+        metadata.writeObject(writer);
+    }
+
+    public static PoolMetadata readObject(ObjectReader reader) {
+        PoolMetadata metadata = new PoolMetadata();
+        reader.beginList();
+        metadata.baseToken = reader.readAddress();
+        metadata.quoteToken = reader.readAddress();
+        metadata.baseSymbol = reader.readString();
+        metadata.quoteSymbol = reader.readString();
+        metadata.baseUnit = reader.readBigInteger();
+        metadata.quoteUnit = reader.readBigInteger();
+        reader.end();
+        return metadata;
+    }
+
+    public void writeObject(ObjectWriter writer) {
+        writer.beginList(6);
+        writer.write(this.baseToken);
+        writer.write(this.quoteToken);
+        writer.write(this.baseSymbol);
+        writer.write(this.quoteSymbol);
+        writer.write(this.baseUnit);
+        writer.write(this.quoteUnit);
+        writer.end();
+    }
+}
@@ -0,0 +1,56 @@
+package icon.inflation.score.nol;
+
+import java.math.BigInteger;
+import java.util.Map;
+
+import score.Address;
+import score.Context;
+import score.ObjectReader;
+import score.ObjectWriter;
+
+/**
+ * The reserves of a Balanced dex pool used to price LP tokens, together with the block
+ * they were read in. Everything that never changes for a pool is kept in PoolMetadata.
+ */
+public class PoolStats {
+    public BigInteger base;
+    public BigInteger quote;
+    public BigInteger totalSupply;
+    public BigInteger block;
+
+    public static PoolStats fetch(Address dex, BigInteger pid) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> stats = (Map<String, Object>) Context.call(dex, "getPoolStats", pid);
+        PoolStats poolStats = new PoolStats();
+        poolStats.base = (BigInteger) stats.get("base");
+        poolStats.quote = (BigInteger) stats.get("quote");
+        poolStats.totalSupply = (BigInteger) stats.get("total_supply");
+        poolStats.block = BigInteger.valueOf(Context.getBlockHeight());
+
+        return poolStats;
+    }
+
+    public static void writeObject(ObjectWriter writer, PoolStats poolStats) {
+        poolStats.writeObject(writer);
+    }
+
+    public static PoolStats readObject(ObjectReader reader) {
+        PoolStats poolStats = new PoolStats();
+        reader.beginList();
+        poolStats.base = reader.readBigInteger();
+        poolStats.quote = reader.readBigInteger();
+        poolStats.totalSupply = reader.readBigInteger();
+        poolStats.block = reader.readBigInteger();
+        reader.end();
+        return poolStats;
+    }
+
+    public void writeObject(ObjectWriter writer) {
+        writer.beginList(4);
+        writer.write(this.base);
+        writer.write(this.quote);
+        writer.write(this.totalSupply);
+        writer.write(this.block);
+        writer.end();
+    }
+}
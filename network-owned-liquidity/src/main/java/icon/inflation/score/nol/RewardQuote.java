@@ -0,0 +1,17 @@
+package icon.inflation.score.nol;
+
+import java.math.BigInteger;
+
+/**
+ * ICX reward for an amount of LP tokens and the slippage of the pool against the oracle
+ * prices, in points.
+ */
+public class RewardQuote {
+    public final BigInteger reward;
+    public final BigInteger slippage;
+
+    public RewardQuote(BigInteger reward, BigInteger slippage) {
+        this.reward = reward;
+        this.slippage = slippage;
+    }
+}
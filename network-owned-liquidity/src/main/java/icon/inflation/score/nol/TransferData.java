@@ -0,0 +1,63 @@
+package icon.inflation.score.nol;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonValue;
+
+import score.Context;
+
+/**
+ * Reads the method from the data of an IRC31 transfer. Besides the JSON form
+ * {"method": "swap"}, the data can be a single method byte.
+ *
+ * The canonical JSON forms are matched byte by byte, so that only JSON with extra
+ * whitespace or fields is parsed into a tree.
+ */
+public class TransferData {
+    public static final byte DEPOSIT = 0;
+    public static final byte SWAP = 1;
+
+    private static final byte[] DEPOSIT_JSON = "{\"method\":\"deposit\"}".getBytes();
+    private static final byte[] SWAP_JSON = "{\"method\":\"swap\"}".getBytes();
+
+    public static byte method(byte[] data) {
+        Context.require(data != null && data.length > 0, Errors.TOKEN_FALLBACK_DATA_EMPTY);
+        if (data.length == 1) {
+            Context.require(data[0] == DEPOSIT || data[0] == SWAP, Errors.IRC31_METHOD_NOT_FOUND);
+            return data[0];
+        }
+
+        if (matches(data, SWAP_JSON)) {
+            return SWAP;
+        }
+
+        if (matches(data, DEPOSIT_JSON)) {
+            return DEPOSIT;
+        }
+
+        JsonValue method = Json.parse(new String(data)).asObject().get("method");
+        Context.require(method != null && method.isString(), Errors.IRC31_METHOD_NOT_FOUND);
+        switch (method.asString()) {
+            case "deposit":
+                return DEPOSIT;
+            case "swap":
+                return SWAP;
+            default:
+                Context.revert(Errors.IRC31_METHOD_NOT_FOUND);
+                return -1;
+        }
+    }
+
+    private static boolean matches(byte[] data, byte[] expected) {
+        if (data.length != expected.length) {
+            return false;
+        }
+
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != expected[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
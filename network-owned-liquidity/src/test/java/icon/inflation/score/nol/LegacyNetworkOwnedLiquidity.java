@@ -0,0 +1,42 @@
+package icon.inflation.score.nol;
+
+import java.math.BigInteger;
+
+import icon.inflation.score.structs.LiquidityOrder;
+import score.Address;
+import score.ArrayDB;
+import score.Context;
+import score.DictDB;
+import score.VarDB;
+import score.annotation.External;
+
+/**
+ * The storage of NetworkOwnedLiquidity before the order book, to test the migration that
+ * runs when the contract is updated.
+ */
+public class LegacyNetworkOwnedLiquidity {
+    public static NetworkOwnedLiquidity updated;
+
+    private final DictDB<BigInteger, LiquidityOrder> orders = Context.newDictDB("ORDERS", LiquidityOrder.class);
+    private final ArrayDB<BigInteger> ordersList = Context.newArrayDB("ORDERS_LIST", BigInteger.class);
+    private final VarDB<BigInteger> investedEmissions = Context.newVarDB("INVESTED_EMISSIONS", BigInteger.class);
+
+    public LegacyNetworkOwnedLiquidity(BigInteger[] pids, BigInteger[] limits, BigInteger[] lastPurchaseBlocks,
+            BigInteger[] remaining, BigInteger invested) {
+        for (int i = 0; i < pids.length; i++) {
+            LiquidityOrder order = new LiquidityOrder();
+            order.limit = limits[i];
+            order.lastPurchaseBlock = lastPurchaseBlocks[i];
+            order.remaining = remaining[i];
+            orders.set(pids[i], order);
+            ordersList.add(pids[i]);
+        }
+
+        investedEmissions.set(invested);
+    }
+
+    @External
+    public void update(Address _balancedDex, Address _balancedOracle) {
+        updated = new NetworkOwnedLiquidity(_balancedDex, _balancedOracle);
+    }
+}
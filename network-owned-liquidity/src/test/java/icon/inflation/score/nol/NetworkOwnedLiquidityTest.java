@@ -1,6 +1,7 @@
 package icon.inflation.score.nol;
 
 import java.math.BigInteger;
+import java.util.List;
 import java.util.Map;
 
 import com.iconloop.score.test.Account;
@@ -22,6 +23,8 @@ import static icon.inflation.score.util.Constants.EXA;
 import static icon.inflation.score.util.Constants.POINTS;
 import static icon.inflation.test.Utils.expectErrorMessage;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -48,6 +51,12 @@ public class NetworkOwnedLiquidityTest extends TestBase {
         when(bnUSD.mock.symbol()).thenReturn("bnUSD");
         when(sICX.mock.symbol()).thenReturn("sICX");
         when(sARCH.mock.symbol()).thenReturn("sARCH");
+        // Pool metadata is cached when an order is configured
+        when(dex.mock.getPoolStats(any())).thenReturn(Map.of(
+                "base_token", sICX.getAddress(),
+                "quote_token", bnUSD.getAddress(),
+                "base_decimals", BigInteger.valueOf(18),
+                "quote_decimals", BigInteger.valueOf(18)));
 
         networkOwnedLiquidity = sm.deploy(governance, NetworkOwnedLiquidity.class, dex.getAddress(),
                 oracle.getAddress());
@@ -126,6 +135,129 @@ public class NetworkOwnedLiquidityTest extends TestBase {
         assertEquals(BigInteger.ZERO, orders[0].remaining);
     }
 
+    @Test
+    public void configureOrder_removeAndReadd() {
+        // Arrange
+        BigInteger pid1 = BigInteger.ONE;
+        BigInteger pid2 = BigInteger.TWO;
+        BigInteger pid3 = BigInteger.valueOf(3);
+        BigInteger limit = BigInteger.valueOf(10000);
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid1, limit);
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid2, limit);
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid3, limit);
+
+        // Act
+        networkOwnedLiquidity.invoke(governance, "removeOrder", pid1);
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid3, limit.multiply(BigInteger.TWO));
+        networkOwnedLiquidity.invoke(governance, "removeOrder", pid1);
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid1, limit);
+        networkOwnedLiquidity.invoke(governance, "removeOrder", pid3);
+
+        // Assert
+        LiquidityOrder[] orders = (LiquidityOrder[]) networkOwnedLiquidity.call("getOrders");
+
+        assertEquals(2, orders.length);
+        assertEquals(pid1, orders[0].pid);
+        assertEquals(pid2, orders[1].pid);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getAvailableAmount() {
+        // Arrange
+        BigInteger pid1 = BigInteger.ONE;
+        BigInteger pid2 = BigInteger.TWO;
+        BigInteger limit = BigInteger.valueOf(100000).multiply(EXA);
+        BigInteger available = BigInteger.valueOf(500).multiply(EXA);
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid1, limit);
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid2, limit);
+        networkOwnedLiquidity.invoke(governance, "setAvailableAmount", pid2, available);
+        BigInteger blockDiff = BigInteger.valueOf(1000);
+        sm.getBlock().increase(blockDiff.longValue());
+
+        // Act
+        BigInteger amount1 = (BigInteger) networkOwnedLiquidity.call("getAvailableAmount", pid1);
+        Map<String, BigInteger> amounts = (Map<String, BigInteger>) networkOwnedLiquidity.call("getAvailableAmounts");
+        Executable noOrder = () -> networkOwnedLiquidity.call("getAvailableAmount", BigInteger.valueOf(3));
+
+        // Assert
+        BigInteger rate = limit.divide(NetworkOwnedLiquidity.DEFAULT_ORDER_PERIOD);
+        // pid2 was configured one block later
+        assertEquals(rate.multiply(blockDiff.add(BigInteger.TWO)), amount1);
+        assertEquals(amount1, amounts.get(pid1.toString()));
+        assertEquals(available.add(rate.multiply(blockDiff.add(BigInteger.ONE))), amounts.get(pid2.toString()));
+        expectErrorMessage(noOrder, Errors.NO_ORDER_EXISTS);
+
+        sm.getBlock().increase(NetworkOwnedLiquidity.DEFAULT_ORDER_PERIOD.longValue());
+        assertEquals(limit, networkOwnedLiquidity.call("getAvailableAmount", pid1));
+    }
+
+    @Test
+    public void setOrderPeriod_updatesRate() {
+        // Arrange
+        BigInteger pid = BigInteger.ONE;
+        BigInteger limit = BigInteger.valueOf(100000).multiply(EXA);
+        BigInteger period = NetworkOwnedLiquidity.DEFAULT_ORDER_PERIOD.divide(BigInteger.TWO);
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid, limit);
+
+        // Act
+        networkOwnedLiquidity.invoke(governance, "setOrderPeriod", period);
+        BigInteger blockDiff = BigInteger.valueOf(1000);
+        sm.getBlock().increase(blockDiff.longValue());
+
+        // Assert
+        BigInteger rate = limit.divide(period);
+        assertEquals(rate.multiply(blockDiff.add(BigInteger.ONE)), networkOwnedLiquidity.call("getAvailableAmount", pid));
+    }
+
+    @Test
+    public void update_migratesBaselineOrders() {
+        // Arrange
+        BigInteger pid1 = BigInteger.ONE;
+        BigInteger pid2 = BigInteger.TWO;
+        BigInteger limit1 = BigInteger.valueOf(100000).multiply(EXA);
+        BigInteger limit2 = BigInteger.valueOf(20000).multiply(EXA);
+        BigInteger lastPurchaseBlock1 = getCurrentBlock();
+        BigInteger lastPurchaseBlock2 = getCurrentBlock().subtract(BigInteger.TEN);
+        BigInteger remaining1 = BigInteger.valueOf(500).multiply(EXA);
+        BigInteger remaining2 = BigInteger.ZERO;
+        BigInteger invested = BigInteger.valueOf(1000).multiply(EXA);
+        Score legacy = sm.deploy(governance, LegacyNetworkOwnedLiquidity.class,
+                new BigInteger[] { pid1, pid2 },
+                new BigInteger[] { limit1, limit2 },
+                new BigInteger[] { lastPurchaseBlock1, lastPurchaseBlock2 },
+                new BigInteger[] { remaining1, remaining2 },
+                invested);
+
+        // Act
+        legacy.invoke(governance, "update", dex.getAddress(), oracle.getAddress());
+        legacy.setInstance(LegacyNetworkOwnedLiquidity.updated);
+
+        // Assert
+        LiquidityOrder[] orders = (LiquidityOrder[]) legacy.call("getOrders");
+        assertEquals(2, orders.length);
+        assertEquals(pid1, orders[0].pid);
+        assertEquals(limit1, orders[0].limit);
+        assertEquals(lastPurchaseBlock1, orders[0].lastPurchaseBlock);
+        assertEquals(remaining1, orders[0].remaining);
+        assertEquals(BigInteger.ZERO, orders[0].invested);
+        assertEquals(pid2, orders[1].pid);
+        assertEquals(limit2, orders[1].limit);
+        assertEquals(lastPurchaseBlock2, orders[1].lastPurchaseBlock);
+        assertEquals(remaining2, orders[1].remaining);
+        assertEquals(invested, legacy.call("getInvestedEmissions"));
+
+        BigInteger blockDiff = BigInteger.valueOf(1000);
+        sm.getBlock().increase(blockDiff.longValue());
+        BigInteger rate1 = limit1.divide(NetworkOwnedLiquidity.DEFAULT_ORDER_PERIOD);
+        BigInteger rate2 = limit2.divide(NetworkOwnedLiquidity.DEFAULT_ORDER_PERIOD);
+        BigInteger height = getCurrentBlock();
+        assertEquals(remaining1.add(rate1.multiply(height.subtract(lastPurchaseBlock1))),
+                legacy.call("getAvailableAmount", pid1));
+        assertEquals(remaining2.add(rate2.multiply(height.subtract(lastPurchaseBlock2))),
+                legacy.call("getAvailableAmount", pid2));
+    }
+
     @Test
     public void swapLPTokens_simple() {
         // Arrange
@@ -189,6 +321,51 @@ public class NetworkOwnedLiquidityTest extends TestBase {
         assertEquals(remaining, orders[0].remaining);
     }
 
+    @Test
+    public void swapLPTokens_compactData() {
+        // Arrange
+        Account user = sm.createAccount();
+        BigInteger amount = BigInteger.TEN.multiply(EXA);
+        BigInteger pid = BigInteger.ONE;
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid, BigInteger.valueOf(100000).multiply(EXA));
+        sm.getBlock().increase(NetworkOwnedLiquidity.DEFAULT_ORDER_PERIOD.longValue());
+
+        Map<String, Object> stats = Map.of(
+                "base_token", sICX.getAddress(),
+                "quote_token", bnUSD.getAddress(),
+                "base", BigInteger.valueOf(1000).multiply(EXA),
+                "quote", BigInteger.valueOf(2000).multiply(EXA),
+                "total_supply", BigInteger.valueOf(1000).multiply(EXA),
+                "base_decimals", BigInteger.valueOf(18),
+                "quote_decimals", BigInteger.valueOf(18));
+
+        when(oracle.mock.getLastPriceInUSD("sICX")).thenReturn(EXA.multiply(BigInteger.TWO));
+        when(oracle.mock.getLastPriceInUSD("bnUSD")).thenReturn(EXA);
+        when(oracle.mock.getLastPriceInUSD("ICX")).thenReturn(BigInteger.valueOf(25).multiply(BigInteger.TEN.pow(16)));
+        when(dex.mock.getPoolStats(pid)).thenReturn(stats);
+
+        // Same pool and prices as swapLPTokens_simple
+        BigInteger expectedICXRewards = BigInteger.valueOf(1616).multiply(BigInteger.TEN.pow(17));
+        networkOwnedLiquidity.getAccount().addBalance(expectedICXRewards.multiply(BigInteger.TWO));
+
+        // Act
+        networkOwnedLiquidity.invoke(dex.account, "onIRC31Received", user.getAddress(), user.getAddress(), pid, amount,
+                new byte[] { TransferData.SWAP });
+        networkOwnedLiquidity.invoke(dex.account, "onIRC31Received", user.getAddress(), user.getAddress(), pid, amount,
+                "{ \"method\": \"swap\" }".getBytes());
+        networkOwnedLiquidity.invoke(dex.account, "onIRC31Received", user.getAddress(), user.getAddress(), pid, amount,
+                new byte[] { TransferData.DEPOSIT });
+        Executable unknownMethod = () -> networkOwnedLiquidity.invoke(dex.account, "onIRC31Received",
+                user.getAddress(), user.getAddress(), pid, amount, new byte[] { 7 });
+        Executable emptyData = () -> networkOwnedLiquidity.invoke(dex.account, "onIRC31Received",
+                user.getAddress(), user.getAddress(), pid, amount, new byte[0]);
+
+        // Assert
+        assertEquals(expectedICXRewards.multiply(BigInteger.TWO), user.getBalance());
+        expectErrorMessage(unknownMethod, Errors.IRC31_METHOD_NOT_FOUND);
+        expectErrorMessage(emptyData, Errors.TOKEN_FALLBACK_DATA_EMPTY);
+    }
+
     @Test
     public void swapLPTokens_multipleOrders() {
         // Arrange
@@ -197,11 +374,91 @@ public class NetworkOwnedLiquidityTest extends TestBase {
         BigInteger amount = BigInteger.TEN.multiply(EXA);
         BigInteger pid1 = BigInteger.ONE;
         BigInteger pid2 = BigInteger.TWO;
+
+        Address baseToken1 = sICX.getAddress();
+        Address baseToken2 = sARCH.getAddress();
+        Address quoteToken = bnUSD.getAddress();
+        // 1 sICX = 2 dollar
+        BigInteger base1 = BigInteger.valueOf(1000).multiply(EXA);
+        // 1 sARCH = 0.5 dollar
+        BigInteger base2 = BigInteger.valueOf(4000).multiply(EXA);
+        BigInteger quote = BigInteger.valueOf(2000).multiply(EXA);
+
+        BigInteger totalSupply = BigInteger.valueOf(1000).multiply(EXA);
+        BigInteger baseDecimals = BigInteger.valueOf(18);
+        BigInteger quoteDecimals = BigInteger.valueOf(18);
+        // sICX = 2.01$
+        BigInteger base1USDPrice = BigInteger.valueOf(201).multiply(BigInteger.TEN.pow(16));
+        // sARCH = 0.495$
+        BigInteger base2USDPrice = BigInteger.valueOf(495).multiply(BigInteger.TEN.pow(15));
+        BigInteger quoteUSDPrice = EXA;
+
+        Map<String, Object> stats1 = Map.of(
+                "base_token", baseToken1,
+                "quote_token", quoteToken,
+                "base", base1,
+                "quote", quote,
+                "total_supply", totalSupply,
+                "base_decimals", baseDecimals,
+                "quote_decimals", quoteDecimals);
+        Map<String, Object> stats2 = Map.of(
+                "base_token", baseToken2,
+                "quote_token", quoteToken,
+                "base", base2,
+                "quote", quote,
+                "total_supply", totalSupply,
+                "base_decimals", baseDecimals,
+                "quote_decimals", quoteDecimals);
+
+        when(oracle.mock.getLastPriceInUSD("sICX")).thenReturn(base1USDPrice);
+        when(oracle.mock.getLastPriceInUSD("sARCH")).thenReturn(base2USDPrice);
+        when(oracle.mock.getLastPriceInUSD("bnUSD")).thenReturn(quoteUSDPrice);
+        when(dex.mock.getPoolStats(pid1)).thenReturn(stats1);
+        when(dex.mock.getPoolStats(pid2)).thenReturn(stats2);
         networkOwnedLiquidity.invoke(governance, "configureOrder", pid1, EXA.multiply(EXA));
         networkOwnedLiquidity.invoke(governance, "configureOrder", pid2, EXA.multiply(EXA));
         networkOwnedLiquidity.invoke(governance, "setAvailableAmount", pid1, EXA.multiply(EXA));
         networkOwnedLiquidity.invoke(governance, "setAvailableAmount", pid2, EXA.multiply(EXA));
 
+        BigInteger ICXPriceInUSD = BigInteger.valueOf(25).multiply(BigInteger.TEN.pow(16)); // $0.25
+        when(oracle.mock.getLastPriceInUSD("ICX")).thenReturn(ICXPriceInUSD);
+
+        // User send 1% of supply, this means 10 ICX and 20 bnUSD value
+        // this results in a 20 + 10*2.01 = 40.1
+        // Default rewards is 1% so total = 40.501 bnUSD
+        // ICX reward = 40.501*4 = 162.004
+        BigInteger expectedRewards1 = BigInteger.valueOf(162004).multiply(BigInteger.TEN.pow(15));
+
+        // User send 1% of supply, this means 40 sARCH and 20 bnUSD value
+        // this results in a 20 + 40*0.495 = 39.8
+        // Default rewards is 1% so total = 40.198 bnUSD
+        // ICX reward = 40.198*4 = 160.792
+        BigInteger expectedRewards2 = BigInteger.valueOf(160792).multiply(BigInteger.TEN.pow(15));
+        networkOwnedLiquidity.getAccount().addBalance(expectedRewards1.add(expectedRewards2));
+
+        // Act
+        networkOwnedLiquidity.invoke(dex.account, "onIRC31Received", user.getAddress(), user.getAddress(), pid1, amount,
+                swapData);
+        networkOwnedLiquidity.invoke(dex.account, "onIRC31Received", user.getAddress(), user.getAddress(), pid2, amount,
+                swapData);
+
+        // Assert
+        assertEquals(expectedRewards1.add(expectedRewards2), user.getBalance());
+
+        LiquidityOrder[] orders = (LiquidityOrder[]) networkOwnedLiquidity.call("getOrders");
+        assertEquals(orders[0].limit.subtract(expectedRewards1), orders[0].remaining);
+        assertEquals(orders[1].limit.subtract(expectedRewards2), orders[1].remaining);
+    }
+
+    @Test
+    public void swapLPTokens_batch() {
+        // Arrange
+        Account user = sm.createAccount();
+        byte[] swapData = "{\"method\":\"swap\"}".getBytes();
+        BigInteger amount = BigInteger.TEN.multiply(EXA);
+        BigInteger pid1 = BigInteger.ONE;
+        BigInteger pid2 = BigInteger.TWO;
+
         Address baseToken1 = sICX.getAddress();
         Address baseToken2 = sARCH.getAddress();
         Address quoteToken = bnUSD.getAddress();
@@ -242,6 +499,10 @@ public class NetworkOwnedLiquidityTest extends TestBase {
         when(oracle.mock.getLastPriceInUSD("bnUSD")).thenReturn(quoteUSDPrice);
         when(dex.mock.getPoolStats(pid1)).thenReturn(stats1);
         when(dex.mock.getPoolStats(pid2)).thenReturn(stats2);
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid1, EXA.multiply(EXA));
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid2, EXA.multiply(EXA));
+        networkOwnedLiquidity.invoke(governance, "setAvailableAmount", pid1, EXA.multiply(EXA));
+        networkOwnedLiquidity.invoke(governance, "setAvailableAmount", pid2, EXA.multiply(EXA));
 
         BigInteger ICXPriceInUSD = BigInteger.valueOf(25).multiply(BigInteger.TEN.pow(16)); // $0.25
         when(oracle.mock.getLastPriceInUSD("ICX")).thenReturn(ICXPriceInUSD);
@@ -260,17 +521,29 @@ public class NetworkOwnedLiquidityTest extends TestBase {
         networkOwnedLiquidity.getAccount().addBalance(expectedRewards1.add(expectedRewards2));
 
         // Act
-        networkOwnedLiquidity.invoke(dex.account, "onIRC31Received", user.getAddress(), user.getAddress(), pid1, amount,
-                swapData);
-        networkOwnedLiquidity.invoke(dex.account, "onIRC31Received", user.getAddress(), user.getAddress(), pid2, amount,
+        Executable lengthMismatch = () -> networkOwnedLiquidity.invoke(dex.account, "onIRC31BatchReceived",
+                user.getAddress(), user.getAddress(), new BigInteger[] { pid1, pid2 }, new BigInteger[] { amount },
                 swapData);
+        expectErrorMessage(lengthMismatch, Errors.BATCH_LENGTH_MISMATCH);
+        networkOwnedLiquidity.invoke(dex.account, "onIRC31BatchReceived", user.getAddress(), user.getAddress(),
+                new BigInteger[] { pid1, pid2 }, new BigInteger[] { amount, amount }, swapData);
 
         // Assert
         assertEquals(expectedRewards1.add(expectedRewards2), user.getBalance());
+        assertEquals(expectedRewards1.add(expectedRewards2), networkOwnedLiquidity.call("getInvestedEmissions"));
+        // The ICX and bnUSD prices are shared by both pids
+        verify(oracle.mock, times(1)).getLastPriceInUSD("ICX");
+        verify(oracle.mock, times(1)).getLastPriceInUSD("bnUSD");
 
         LiquidityOrder[] orders = (LiquidityOrder[]) networkOwnedLiquidity.call("getOrders");
         assertEquals(orders[0].limit.subtract(expectedRewards1), orders[0].remaining);
         assertEquals(orders[1].limit.subtract(expectedRewards2), orders[1].remaining);
+        assertEquals(expectedRewards1, orders[0].invested);
+        assertEquals(expectedRewards2, orders[1].invested);
+
+        // Removed orders keep counting towards the invested emissions
+        networkOwnedLiquidity.invoke(governance, "removeOrder", pid1);
+        assertEquals(expectedRewards1.add(expectedRewards2), networkOwnedLiquidity.call("getInvestedEmissions"));
     }
 
     @Test
@@ -447,8 +720,6 @@ public class NetworkOwnedLiquidityTest extends TestBase {
         byte[] swapData = "{\"method\":\"swap\"}".getBytes();
         BigInteger amount = BigInteger.TEN.multiply(EXA);
         BigInteger pid = BigInteger.ONE;
-        networkOwnedLiquidity.invoke(governance, "configureOrder", pid, EXA.multiply(EXA));
-        networkOwnedLiquidity.invoke(governance, "setAvailableAmount", pid, EXA.multiply(EXA));
 
         Address baseToken = sARCH.getAddress();
         Address quoteToken = sICX.getAddress();
@@ -476,6 +747,8 @@ public class NetworkOwnedLiquidityTest extends TestBase {
         when(oracle.mock.getLastPriceInUSD("sARCH")).thenReturn(baseUSDPrice);
         when(oracle.mock.getLastPriceInUSD("sICX")).thenReturn(quoteUSDPrice);
         when(dex.mock.getPoolStats(pid)).thenReturn(stats);
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid, EXA.multiply(EXA));
+        networkOwnedLiquidity.invoke(governance, "setAvailableAmount", pid, EXA.multiply(EXA));
 
         BigInteger ICXPriceInUSD = BigInteger.valueOf(25).multiply(BigInteger.TEN.pow(16)); // $0.25
         when(oracle.mock.getLastPriceInUSD("ICX")).thenReturn(ICXPriceInUSD);
@@ -556,6 +829,195 @@ public class NetworkOwnedLiquidityTest extends TestBase {
         assertEquals(orders[0].limit.subtract(expectedRewards), orders[0].remaining);
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void calculateICXRewards() {
+        // Arrange
+        BigInteger amount = BigInteger.TEN.multiply(EXA);
+        BigInteger pid1 = BigInteger.ONE;
+        BigInteger pid2 = BigInteger.TWO;
+        BigInteger unknownPid = BigInteger.valueOf(3);
+        Map<String, Object> stats1 = Map.of(
+                "base_token", sICX.getAddress(),
+                "quote_token", bnUSD.getAddress(),
+                "base", BigInteger.valueOf(1000).multiply(EXA),
+                "quote", BigInteger.valueOf(2000).multiply(EXA),
+                "total_supply", BigInteger.valueOf(1000).multiply(EXA),
+                "base_decimals", BigInteger.valueOf(18),
+                "quote_decimals", BigInteger.valueOf(18));
+        Map<String, Object> stats2 = Map.of(
+                "base_token", sARCH.getAddress(),
+                "quote_token", bnUSD.getAddress(),
+                "base", BigInteger.valueOf(4000).multiply(EXA),
+                "quote", BigInteger.valueOf(2000).multiply(EXA),
+                "total_supply", BigInteger.valueOf(1000).multiply(EXA),
+                "base_decimals", BigInteger.valueOf(18),
+                "quote_decimals", BigInteger.valueOf(18));
+
+        when(oracle.mock.getLastPriceInUSD("sICX")).thenReturn(EXA.multiply(BigInteger.TWO));
+        when(oracle.mock.getLastPriceInUSD("sARCH")).thenReturn(BigInteger.valueOf(5).multiply(BigInteger.TEN.pow(17)));
+        when(oracle.mock.getLastPriceInUSD("bnUSD")).thenReturn(EXA);
+        when(oracle.mock.getLastPriceInUSD("ICX")).thenReturn(BigInteger.valueOf(25).multiply(BigInteger.TEN.pow(16)));
+        when(dex.mock.getPoolStats(pid1)).thenReturn(stats1);
+        when(dex.mock.getPoolStats(pid2)).thenReturn(stats2);
+        when(dex.mock.getPoolStats(unknownPid)).thenReturn(stats1);
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid1, EXA.multiply(EXA));
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid2, EXA.multiply(EXA));
+        networkOwnedLiquidity.invoke(governance, "setAvailableAmount", pid1, EXA.multiply(EXA));
+        networkOwnedLiquidity.invoke(governance, "removeOrder", pid2);
+
+        // Act
+        List<Map<String, Object>> quotes = (List<Map<String, Object>>) networkOwnedLiquidity.call(
+                "calculateICXRewards", new BigInteger[] { pid1, pid2, unknownPid },
+                new BigInteger[] { amount, amount, amount });
+        Executable lengthMismatch = () -> networkOwnedLiquidity.call("calculateICXRewards",
+                new BigInteger[] { pid1, pid2 }, new BigInteger[] { amount });
+
+        // Assert
+        expectErrorMessage(lengthMismatch, Errors.QUOTE_LENGTH_MISMATCH);
+        assertEquals(3, quotes.size());
+        assertEquals(pid1, quotes.get(0).get("pid"));
+        assertEquals(networkOwnedLiquidity.call("calculateICXReward", pid1, amount), quotes.get(0).get("reward"));
+        assertEquals(networkOwnedLiquidity.call("getAvailableAmount", pid1), quotes.get(0).get("remaining"));
+        // A removed order and a pool without an order are still quoted, but have nothing left to fill
+        assertEquals(pid2, quotes.get(1).get("pid"));
+        assertEquals(networkOwnedLiquidity.call("calculateICXReward", pid2, amount), quotes.get(1).get("reward"));
+        assertEquals(BigInteger.ZERO, quotes.get(1).get("remaining"));
+        assertEquals(unknownPid, quotes.get(2).get("pid"));
+        assertEquals(quotes.get(0).get("reward"), quotes.get(2).get("reward"));
+        assertEquals(BigInteger.ZERO, quotes.get(2).get("remaining"));
+    }
+
+    @Test
+    public void swapLPTokens_cachedMarketData() {
+        // Arrange
+        Account user = sm.createAccount();
+        byte[] swapData = "{\"method\":\"swap\"}".getBytes();
+        BigInteger amount = BigInteger.TEN.multiply(EXA);
+        BigInteger pid = BigInteger.ONE;
+        Map<String, Object> stats = Map.of(
+                "base_token", sICX.getAddress(),
+                "quote_token", bnUSD.getAddress(),
+                "base", BigInteger.valueOf(1000).multiply(EXA),
+                "quote", BigInteger.valueOf(2000).multiply(EXA),
+                "total_supply", BigInteger.valueOf(1000).multiply(EXA),
+                "base_decimals", BigInteger.valueOf(18),
+                "quote_decimals", BigInteger.valueOf(18));
+
+        when(oracle.mock.getLastPriceInUSD("sICX")).thenReturn(EXA.multiply(BigInteger.TWO));
+        when(oracle.mock.getLastPriceInUSD("bnUSD")).thenReturn(EXA);
+        when(oracle.mock.getLastPriceInUSD("ICX")).thenReturn(BigInteger.valueOf(25).multiply(BigInteger.TEN.pow(16)));
+        when(dex.mock.getPoolStats(pid)).thenReturn(stats);
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid, EXA.multiply(EXA));
+        networkOwnedLiquidity.invoke(governance, "setAvailableAmount", pid, EXA.multiply(EXA));
+        networkOwnedLiquidity.getAccount().addBalance(BigInteger.valueOf(1000).multiply(EXA));
+
+        // Act
+        networkOwnedLiquidity.invoke(dex.account, "onIRC31Received", user.getAddress(), user.getAddress(), pid, amount,
+                swapData);
+        BigInteger reward = (BigInteger) networkOwnedLiquidity.call("calculateICXReward", pid, amount);
+
+        // Assert
+        // configureOrder loads the pool metadata once. A swap then costs 4 external calls: pool
+        // stats and three prices, and quotes in the same block reuse them.
+        assertEquals(user.getBalance(), reward);
+        verify(dex.mock, times(2)).getPoolStats(pid);
+        verify(sICX.mock, times(1)).symbol();
+        verify(bnUSD.mock, times(1)).symbol();
+        verify(oracle.mock, times(1)).getLastPriceInUSD("sICX");
+        verify(oracle.mock, times(1)).getLastPriceInUSD("bnUSD");
+        verify(oracle.mock, times(1)).getLastPriceInUSD("ICX");
+
+        // Act
+        sm.getBlock().increase(1);
+        networkOwnedLiquidity.call("calculateICXReward", pid, amount);
+
+        // Assert
+        verify(dex.mock, times(3)).getPoolStats(pid);
+        verify(sICX.mock, times(1)).symbol();
+        verify(oracle.mock, times(2)).getLastPriceInUSD("ICX");
+    }
+
+    @Test
+    public void swapLPTokens_cachedPricesPerSymbol() {
+        // Arrange
+        Account user = sm.createAccount();
+        byte[] swapData = "{\"method\":\"swap\"}".getBytes();
+        BigInteger amount = BigInteger.TEN.multiply(EXA);
+        BigInteger pid1 = BigInteger.ONE;
+        BigInteger pid2 = BigInteger.TWO;
+        Map<String, Object> stats1 = Map.of(
+                "base_token", sICX.getAddress(),
+                "quote_token", bnUSD.getAddress(),
+                "base", BigInteger.valueOf(1000).multiply(EXA),
+                "quote", BigInteger.valueOf(2000).multiply(EXA),
+                "total_supply", BigInteger.valueOf(1000).multiply(EXA),
+                "base_decimals", BigInteger.valueOf(18),
+                "quote_decimals", BigInteger.valueOf(18));
+        Map<String, Object> stats2 = Map.of(
+                "base_token", sARCH.getAddress(),
+                "quote_token", bnUSD.getAddress(),
+                "base", BigInteger.valueOf(4000).multiply(EXA),
+                "quote", BigInteger.valueOf(2000).multiply(EXA),
+                "total_supply", BigInteger.valueOf(1000).multiply(EXA),
+                "base_decimals", BigInteger.valueOf(18),
+                "quote_decimals", BigInteger.valueOf(18));
+
+        when(oracle.mock.getLastPriceInUSD("sICX")).thenReturn(EXA.multiply(BigInteger.TWO));
+        when(oracle.mock.getLastPriceInUSD("sARCH")).thenReturn(BigInteger.valueOf(5).multiply(BigInteger.TEN.pow(17)));
+        when(oracle.mock.getLastPriceInUSD("bnUSD")).thenReturn(EXA);
+        when(oracle.mock.getLastPriceInUSD("ICX")).thenReturn(BigInteger.valueOf(25).multiply(BigInteger.TEN.pow(16)));
+        when(dex.mock.getPoolStats(pid1)).thenReturn(stats1);
+        when(dex.mock.getPoolStats(pid2)).thenReturn(stats2);
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid1, EXA.multiply(EXA));
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid2, EXA.multiply(EXA));
+        networkOwnedLiquidity.invoke(governance, "setAvailableAmount", pid1, EXA.multiply(EXA));
+        networkOwnedLiquidity.getAccount().addBalance(BigInteger.valueOf(1000).multiply(EXA));
+
+        // Act
+        networkOwnedLiquidity.invoke(dex.account, "onIRC31Received", user.getAddress(), user.getAddress(), pid1, amount,
+                swapData);
+        networkOwnedLiquidity.call("calculateICXReward", pid2, amount);
+        BigInteger reward = (BigInteger) networkOwnedLiquidity.call("calculateICXReward", pid1, amount);
+
+        // Assert
+        // Each symbol is cached under its own key, so the quote of the second pool in the same
+        // block only has to read the price of sARCH
+        assertEquals(user.getBalance(), reward);
+        verify(oracle.mock, times(1)).getLastPriceInUSD("sICX");
+        verify(oracle.mock, times(1)).getLastPriceInUSD("sARCH");
+        verify(oracle.mock, times(1)).getLastPriceInUSD("bnUSD");
+        verify(oracle.mock, times(1)).getLastPriceInUSD("ICX");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void refreshPoolMetadata() {
+        // Arrange
+        BigInteger pid = BigInteger.ONE;
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid, EXA);
+        when(dex.mock.getPoolStats(pid)).thenReturn(Map.of(
+                "base_token", sARCH.getAddress(),
+                "quote_token", bnUSD.getAddress(),
+                "base_decimals", BigInteger.valueOf(6),
+                "quote_decimals", BigInteger.valueOf(18)));
+
+        // Act
+        Map<String, Object> cached = (Map<String, Object>) networkOwnedLiquidity.call("getPoolMetadata", pid);
+        networkOwnedLiquidity.invoke(governance, "configureOrder", pid, EXA.multiply(BigInteger.TWO));
+        Map<String, Object> reconfigured = (Map<String, Object>) networkOwnedLiquidity.call("getPoolMetadata", pid);
+        networkOwnedLiquidity.invoke(governance, "refreshPoolMetadata", pid);
+        Map<String, Object> refreshed = (Map<String, Object>) networkOwnedLiquidity.call("getPoolMetadata", pid);
+
+        // Assert
+        assertEquals("sICX", cached.get("base_symbol"));
+        assertEquals(EXA, cached.get("base_unit"));
+        assertEquals(cached, reconfigured);
+        assertEquals("sARCH", refreshed.get("base_symbol"));
+        assertEquals(BigInteger.TEN.pow(6), refreshed.get("base_unit"));
+        assertEquals("bnUSD", refreshed.get("quote_symbol"));
+    }
+
     @Test
     public void disburse() {
         // Arrange
@@ -608,6 +1070,7 @@ public class NetworkOwnedLiquidityTest extends TestBase {
 
         _testPermission("configureOrder", Checks.Errors.ONLY_OWNER, BigInteger.ONE, BigInteger.ONE);
         _testPermission("removeOrder", Checks.Errors.ONLY_OWNER, BigInteger.ONE);
+        _testPermission("refreshPoolMetadata", Checks.Errors.ONLY_OWNER, BigInteger.ONE);
         _testPermission("disburse", Checks.Errors.ONLY_OWNER, dex.getAddress(), dex.getAddress(), BigInteger.ONE,
                 new byte[0]);
         _testPermission("disburseICX", Checks.Errors.ONLY_OWNER, dex.getAddress(), BigInteger.ONE);
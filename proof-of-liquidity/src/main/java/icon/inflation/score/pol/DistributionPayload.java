@@ -0,0 +1,51 @@
+package icon.inflation.score.pol;
+
+import java.math.BigInteger;
+
+import com.eclipsesource.json.Json;
+
+import icon.inflation.score.structs.LiquidityDistribution;
+
+/**
+ * Builds the data sent to the rewards contract with each distribution:
+ * [{"source": "ETH/sICX", "amount": "123"}, ...]
+ *
+ * Everything except the amounts only changes when the distributions are configured, so it
+ * is rendered once into a template with a placeholder for each amount.
+ */
+public class DistributionPayload {
+    // Dev note: Source names are escaped by the JSON encoder, so a raw NUL can never be part of
+    // the template other than as placeholder.
+    public static final char PLACEHOLDER = '\0';
+
+    public static String template(LiquidityDistribution[] _distribution) {
+        StringBuilder template = new StringBuilder("[");
+        for (int i = 0; i < _distribution.length; i++) {
+            if (i > 0) {
+                template.append(',');
+            }
+
+            template.append("{\"source\":")
+                    .append(Json.value(_distribution[i].source).toString())
+                    .append(",\"amount\":\"")
+                    .append(PLACEHOLDER)
+                    .append("\"}");
+        }
+
+        return template.append(']').toString();
+    }
+
+    public static byte[] fill(String template, BigInteger[] amounts) {
+        StringBuilder payload = new StringBuilder(template.length() + amounts.length * 24);
+        int next = 0;
+        int start = 0;
+        int index = template.indexOf(PLACEHOLDER);
+        while (index >= 0) {
+            payload.append(template, start, index).append(amounts[next++].toString());
+            start = index + 1;
+            index = template.indexOf(PLACEHOLDER, start);
+        }
+
+        return payload.append(template, start, template.length()).toString().getBytes();
+    }
+}
@@ -7,4 +7,7 @@ public class Errors {
     public static final String NOT_CONFIGURED = "Distributions has not yet been configured";
     public static final String EMPTY_BALANCE = "Current ICX Balance is empty";
     public static final String NO_REENTRY = "No reentry allowed";
+    public static final String NEGATIVE_VALUE = "Value cannot be negative";
+    public static final String UNSUPPORTED_TOKEN = "Only sICX is accepted";
+    public static final String NOTHING_MINTED = "Staking did not mint any sICX";
 }
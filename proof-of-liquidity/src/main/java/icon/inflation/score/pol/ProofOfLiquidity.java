@@ -4,30 +4,46 @@ import static icon.inflation.score.util.Checks.onlyOwner;
 import static icon.inflation.score.util.Constants.EXA;
 
 import java.math.BigInteger;
-
-import com.eclipsesource.json.JsonArray;
-import com.eclipsesource.json.JsonObject;
-import com.eclipsesource.json.JsonValue;
+import java.util.List;
+import java.util.Map;
 
 import icon.inflation.score.structs.LiquidityDistribution;
 import icon.inflation.score.util.DBUtils;
+import icon.inflation.score.util.ShareRegistry;
 import score.Address;
 import score.ArrayDB;
+import score.ByteArrayObjectWriter;
 import score.Context;
+import score.ObjectReader;
 import score.VarDB;
 import score.annotation.External;
 import score.annotation.Payable;
+import scorex.util.ArrayList;
 
 public class ProofOfLiquidity {
 
+    // Legacy layout, only read to migrate into distributions
     public static final ArrayDB<LiquidityDistribution> distribution = Context.newArrayDB("DISTRIBUTIONS", LiquidityDistribution.class);
+    public static final ShareRegistry<LiquidityDistribution> distributions = new ShareRegistry<>("DISTRIBUTION_REGISTRY", LiquidityDistribution.class);
+
+    // Shares and payload template in the order of distributions, rebuilt whenever they change
+    public static final VarDB<byte[]> payloadTemplate = Context.newVarDB("PAYLOAD_TEMPLATE", byte[].class);
 
     public static final VarDB<Address> staking = Context.newVarDB("STAKING_ADDRESS", Address.class);
     public static final VarDB<Address> sICX = Context.newVarDB("STAKED_ICX", Address.class);
     public static final VarDB<Address> balancedRewards = Context.newVarDB("BALANCED_REWARDS", Address.class);
 
+    // Coalescing of distributions triggered by incoming ICX
+    public static final VarDB<BigInteger> distributionInterval = Context.newVarDB("DISTRIBUTION_INTERVAL", BigInteger.class); // Blocks
+    public static final VarDB<BigInteger> minDistributionBalance = Context.newVarDB("MIN_DISTRIBUTION_BALANCE", BigInteger.class);
+    public static final VarDB<BigInteger> lastDistributionBlock = Context.newVarDB("LAST_DISTRIBUTION_BLOCK", BigInteger.class);
+
+    // sICX received directly, distributed without staking
+    public static final VarDB<BigInteger> pendingSICX = Context.newVarDB("PENDING_SICX", BigInteger.class);
+
     private static BigInteger TOTAL_SHARE = EXA;
     private static String NAME = "ICON Proof of liquidity Manager";
+    private static final String CODEC = "RLPn";
 
     private static boolean distributing = false;
 
@@ -35,6 +51,27 @@ public class ProofOfLiquidity {
         ProofOfLiquidity.staking.set(staking);
         ProofOfLiquidity.sICX.set(sICX);
         ProofOfLiquidity.balancedRewards.set(balancedRewards);
+
+        if (distributions.size() == 0 && distribution.size() > 0) {
+            int size = distribution.size();
+            for (int i = 0; i < size; i++) {
+                // Dev note: The baseline configureDistributions did not reject duplicate sources,
+                // their shares are merged so that each source is still paid its total.
+                LiquidityDistribution dist = distribution.get(i);
+                LiquidityDistribution existing = distributions.get(dist.source);
+                if (existing != null) {
+                    dist.share = dist.share.add(existing.share);
+                }
+
+                distributions.upsert(dist);
+            }
+
+            DBUtils.clear(distribution);
+        }
+
+        if (payloadTemplate.get() == null && distributions.size() > 0) {
+            refreshPayloadTemplate();
+        }
     }
 
     @External(readonly = true)
@@ -78,12 +115,29 @@ public class ProofOfLiquidity {
         return sICX.get();
     }
 
+    @External(readonly = true)
+    public Map<String, Object> getDistributionCoalescing() {
+        return Map.of(
+                "interval", distributionInterval.getOrDefault(BigInteger.ZERO),
+                "minBalance", minDistributionBalance.getOrDefault(BigInteger.ZERO),
+                "lastDistributionBlock", lastDistributionBlock.getOrDefault(BigInteger.ZERO));
+    }
+
+    @External
+    public void configureDistributionCoalescing(BigInteger _interval, BigInteger _minBalance) {
+        onlyOwner();
+        Context.require(_interval.signum() >= 0, Errors.NEGATIVE_VALUE);
+        Context.require(_minBalance.signum() >= 0, Errors.NEGATIVE_VALUE);
+        distributionInterval.set(_interval);
+        minDistributionBalance.set(_minBalance);
+    }
+
     @External(readonly = true)
     public LiquidityDistribution[] getDistributions() {
-        int size = distribution.size();
+        int size = distributions.size();
         LiquidityDistribution[] _distribution = new LiquidityDistribution[size];
         for (int i = 0; i < size; i++) {
-            _distribution[i] = distribution.get(i);
+            _distribution[i] = distributions.at(i);
         }
 
         return _distribution;
@@ -92,16 +146,91 @@ public class ProofOfLiquidity {
     @External
     public void configureDistributions(LiquidityDistribution[] _distribution) {
         onlyOwner();
-        BigInteger sum = BigInteger.ZERO;
-        DBUtils.clear(distribution);
+
+        // Dev note: Only sources that are not part of the new configuration are removed, all
+        // other sources are updated in place.
+        int size = distributions.size();
+        String[] removed = new String[size];
+        int removedCount = 0;
+        for (int i = 0; i < size; i++) {
+            String source = distributions.at(i).source;
+            if (!containsSource(_distribution, source)) {
+                removed[removedCount++] = source;
+            }
+        }
+
+        for (int i = 0; i < removedCount; i++) {
+            distributions.remove(removed[i]);
+        }
 
         for (LiquidityDistribution dist : _distribution) {
             Context.require(dist.share.compareTo(BigInteger.ZERO) > 0, Errors.NEGATIVE_PERCENTAGE);
-            sum = sum.add(dist.share);
-            distribution.add(dist);
+            distributions.upsert(dist);
         }
 
-        Context.require(sum.equals(TOTAL_SHARE), Errors.INVALID_SUM);
+        Context.require(distributions.total().equals(TOTAL_SHARE), Errors.INVALID_SUM);
+        refreshPayloadTemplate();
+    }
+
+    @External
+    public void updateDistributions(LiquidityDistribution[] _distribution) {
+        onlyOwner();
+        for (LiquidityDistribution dist : _distribution) {
+            Context.require(dist.share.compareTo(BigInteger.ZERO) >= 0, Errors.NEGATIVE_PERCENTAGE);
+            if (dist.share.signum() == 0) {
+                distributions.remove(dist.source);
+            } else {
+                distributions.upsert(dist);
+            }
+        }
+
+        Context.require(distributions.total().equals(TOTAL_SHARE), Errors.INVALID_SUM);
+        refreshPayloadTemplate();
+    }
+
+    @External(readonly = true)
+    public Map<String, Object> previewDistribution() {
+        BigInteger balance = Context.getBalance(Context.getAddress());
+        BigInteger pending = getPendingSICX();
+        int size = distributions.size();
+
+        String error = "";
+        if (distributing) {
+            error = Errors.NO_REENTRY;
+        } else if (balance.signum() <= 0 && pending.signum() <= 0) {
+            error = Errors.EMPTY_BALANCE;
+        } else if (size == 0) {
+            error = Errors.NOT_CONFIGURED;
+        }
+
+        BigInteger amount = BigInteger.ZERO;
+        BigInteger sum = BigInteger.ZERO;
+        List<Map<String, Object>> payouts = new ArrayList<>();
+        if (error.isEmpty()) {
+            amount = pending;
+            if (balance.signum() > 0) {
+                // Dev note: Same calculation as the staking contract uses to mint sICX
+                BigInteger rate = Context.call(BigInteger.class, staking.get(), "getTodayRate");
+                amount = amount.add(balance.multiply(EXA).divide(rate));
+            }
+            LiquidityDistribution[] _distribution = getDistributions();
+            BigInteger[] shares = allocate(_distribution, amount);
+            for (int i = 0; i < size; i++) {
+                sum = sum.add(shares[i]);
+                payouts.add(Map.of(
+                        "source", _distribution[i].source,
+                        "amount", shares[i]));
+            }
+        }
+
+        return Map.of(
+                "error", error,
+                "balance", balance,
+                "pendingSICX", pending,
+                "amount", amount,
+                "payouts", payouts,
+                "total", sum,
+                "dust", amount.subtract(sum));
     }
 
     @External
@@ -109,47 +238,151 @@ public class ProofOfLiquidity {
         Context.require(!distributing, Errors.NO_REENTRY);
 
         BigInteger balance = Context.getBalance(Context.getAddress());
-        Context.require(balance.compareTo(BigInteger.ZERO) > 0, Errors.EMPTY_BALANCE);
+        BigInteger amount = getPendingSICX();
+        Context.require(balance.signum() > 0 || amount.signum() > 0, Errors.EMPTY_BALANCE);
 
-        int size = distribution.size();
-        Context.require(size > 0, Errors.NOT_CONFIGURED);
+        byte[] packed = payloadTemplate.get();
+        Context.require(packed != null, Errors.NOT_CONFIGURED);
 
         distributing = true;
+        if (balance.signum() > 0) {
+            // Dev note: Staking returns the minted sICX, which saves a balanceOf call and ignores
+            // any sICX that ended up in this contract by other means.
+            BigInteger minted = Context.call(BigInteger.class, balance, staking.get(), "stakeICX", null, null);
+            Context.require(minted != null && minted.signum() > 0, Errors.NOTHING_MINTED);
+            amount = amount.add(minted);
+            pendingSICX.set(amount);
+        }
 
-        Context.call(balance, staking.get(), "stakeICX", null, null);
-        BigInteger amount = Context.call(BigInteger.class, sICX.get(), "balanceOf", Context.getAddress());
-        BigInteger sum = BigInteger.ZERO;
+        // Dev note: The payload is filled in from the template built at configuration, so
+        // distribute neither loads the distributions nor builds any JSON.
+        ObjectReader reader = Context.newByteArrayObjectReader(CODEC, packed);
+        reader.beginList();
+        String template = reader.readString();
+        reader.beginList();
+        List<BigInteger> shares = new ArrayList<>();
+        while (reader.hasNext()) {
+            shares.add(reader.readBigInteger());
+        }
+        reader.end();
+        reader.end();
 
-        JsonArray data = new JsonArray();
+        int size = shares.size();
+        BigInteger[] amounts = new BigInteger[size];
+        BigInteger sum = BigInteger.ZERO;
         for (int i = 0; i < size; i++) {
-            LiquidityDistribution dist = distribution.get(i);
-            // Dev note: This way of calculating will create remaining dust. But since we
-            // are dealing with large amounts this should not matter and a good trade of for
-            // simplicity
-            BigInteger share = dist.share.multiply(amount).divide(TOTAL_SHARE);
-            sum = sum.add(share);
-            JsonValue jsonData = new JsonObject()
-                .add("source", dist.source)
-                .add("amount", share.toString());
-            data.add(jsonData);
-        }
-
-        Context.call(sICX.get(), "transfer", balancedRewards.get(), sum, data.toString().getBytes());
+            amounts[i] = allocate(shares.get(i), amount);
+            sum = sum.add(amounts[i]);
+        }
+
+        Context.call(sICX.get(), "transfer", balancedRewards.get(), sum, DistributionPayload.fill(template, amounts));
+
+        // Dev note: State is only settled once the sICX has left the contract. When fallback or
+        // tokenFallback catch a failed distribution, writes made before the failure are kept,
+        // so the minted sICX stays pending for the next distribution. The rounding dust stays
+        // pending as well and goes out with the next distribution.
+        BigInteger dust = amount.subtract(sum);
+        pendingSICX.set(dust.signum() > 0 ? dust : null);
+        lastDistributionBlock.set(BigInteger.valueOf(Context.getBlockHeight()));
         distributing = false;
     }
 
-
+    @External(readonly = true)
+    public BigInteger getPendingSICX() {
+        return pendingSICX.getOrDefault(BigInteger.ZERO);
+    }
 
     @External
     public void tokenFallback(Address _from, BigInteger _value, byte[] _data) {
+        Context.require(Context.getCaller().equals(sICX.get()), Errors.UNSUPPORTED_TOKEN);
+
+        // sICX minted by our own stakeICX call is already counted by distribute
+        if (distributing) {
+            return;
+        }
+
+        // Dev note: sICX sent directly skips staking and goes out with the next distribution,
+        // which is triggered right away unless coalescing holds it back.
+        pendingSICX.set(getPendingSICX().add(_value));
+        if (!shouldDistribute()) {
+            return;
+        }
+
+        try {
+            distribute();
+        } catch (Exception e) {
+            distributing = false;
+        }
     }
 
     @Payable
     public void fallback() {
+        // Dev note: Deposits in between distributions just accumulate, so the number of
+        // staking and transfer calls is bounded by the interval
+        if (!shouldDistribute()) {
+            return;
+        }
+
         try {
             distribute();
         } catch (Exception e) {
+            distributing = false;
         }
     }
 
+    private boolean shouldDistribute() {
+        BigInteger lastBlock = lastDistributionBlock.get();
+        if (lastBlock != null) {
+            BigInteger nextDistributionBlock = lastBlock.add(distributionInterval.getOrDefault(BigInteger.ZERO));
+            if (BigInteger.valueOf(Context.getBlockHeight()).compareTo(nextDistributionBlock) < 0) {
+                return false;
+            }
+        }
+
+        // Dev note: sICX is worth at least one ICX, so counting it at par never delays a
+        // distribution that holds enough value
+        BigInteger balance = Context.getBalance(Context.getAddress()).add(getPendingSICX());
+        return balance.signum() > 0 && balance.compareTo(minDistributionBalance.getOrDefault(BigInteger.ZERO)) >= 0;
+    }
+
+    private static BigInteger[] allocate(LiquidityDistribution[] _distribution, BigInteger amount) {
+        BigInteger[] shares = new BigInteger[_distribution.length];
+        for (int i = 0; i < _distribution.length; i++) {
+            shares[i] = allocate(_distribution[i].share, amount);
+        }
+
+        return shares;
+    }
+
+    private static BigInteger allocate(BigInteger share, BigInteger amount) {
+        // Dev note: This way of calculating will create remaining dust. But since we
+        // are dealing with large amounts this should not matter and a good trade of for
+        // simplicity
+        return share.multiply(amount).divide(TOTAL_SHARE);
+    }
+
+    private void refreshPayloadTemplate() {
+        LiquidityDistribution[] _distribution = getDistributions();
+        ByteArrayObjectWriter writer = Context.newByteArrayObjectWriter(CODEC);
+        writer.beginList(2);
+        writer.write(DistributionPayload.template(_distribution));
+        writer.beginList(_distribution.length);
+        for (LiquidityDistribution dist : _distribution) {
+            writer.write(dist.share);
+        }
+        writer.end();
+        writer.end();
+        payloadTemplate.set(writer.toByteArray());
+    }
+
+    private static boolean containsSource(LiquidityDistribution[] _distribution, String source) {
+        for (LiquidityDistribution dist : _distribution) {
+            if (dist.source.equals(source)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
 }
@@ -0,0 +1,29 @@
+package icon.inflation.score.pol;
+
+import icon.inflation.score.structs.LiquidityDistribution;
+import score.Address;
+import score.ArrayDB;
+import score.Context;
+import score.annotation.External;
+
+/**
+ * The storage of ProofOfLiquidity before the share registry, to test the migration that
+ * runs when the contract is updated.
+ */
+public class LegacyProofOfLiquidity {
+    public static ProofOfLiquidity updated;
+
+    private final ArrayDB<LiquidityDistribution> distribution = Context.newArrayDB("DISTRIBUTIONS",
+            LiquidityDistribution.class);
+
+    public LegacyProofOfLiquidity(LiquidityDistribution[] _distribution) {
+        for (LiquidityDistribution dist : _distribution) {
+            distribution.add(dist);
+        }
+    }
+
+    @External
+    public void update(Address staking, Address sICX, Address balancedRewards) {
+        updated = new ProofOfLiquidity(staking, sICX, balancedRewards);
+    }
+}
@@ -1,6 +1,8 @@
 package icon.inflation.score.pol;
 
 import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
 
 import com.eclipsesource.json.JsonArray;
 import com.eclipsesource.json.JsonObject;
@@ -26,6 +28,11 @@ import score.Context;
 
 import static icon.inflation.test.Utils.expectErrorMessage;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static icon.inflation.score.util.Constants.EXA;
@@ -121,6 +128,79 @@ public class ProofOfLiquidityTest extends TestBase {
         distEq(dist[0], configuredBuckets[0]);
     }
 
+    @Test
+    public void configureDistributions_replace() {
+        // Arrange
+        LiquidityDistribution eth = newDist("ETH/sICX",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        LiquidityDistribution avax = newDist("AVAX/sICX",
+                BigInteger.valueOf(6).multiply(EXA).divide(BigInteger.valueOf(100))); // 6%
+        LiquidityDistribution bnb = newDist("BNB/sICX",
+                BigInteger.valueOf(4).multiply(EXA).divide(BigInteger.valueOf(100))); // 4%
+        pol.invoke(governance, "configureDistributions", (Object) new LiquidityDistribution[] { eth, avax, bnb });
+
+        LiquidityDistribution newEth = newDist("ETH/sICX",
+                BigInteger.valueOf(50).multiply(EXA).divide(BigInteger.valueOf(100))); // 50%
+        LiquidityDistribution btc = newDist("BTC/sICX",
+                BigInteger.valueOf(50).multiply(EXA).divide(BigInteger.valueOf(100))); // 50%
+
+        // Act
+        pol.invoke(governance, "configureDistributions", (Object) new LiquidityDistribution[] { newEth, btc });
+
+        // Assert
+        LiquidityDistribution[] configured = (LiquidityDistribution[]) pol.call("getDistributions");
+        assertEquals(2, configured.length);
+        distEq(newEth, configured[0]);
+        distEq(btc, configured[1]);
+    }
+
+    @Test
+    public void updateDistributions() {
+        // Arrange
+        LiquidityDistribution eth = newDist("ETH/sICX",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        LiquidityDistribution avax = newDist("AVAX/sICX",
+                BigInteger.valueOf(6).multiply(EXA).divide(BigInteger.valueOf(100))); // 6%
+        LiquidityDistribution bnb = newDist("BNB/sICX",
+                BigInteger.valueOf(4).multiply(EXA).divide(BigInteger.valueOf(100))); // 4%
+        pol.invoke(governance, "configureDistributions", (Object) new LiquidityDistribution[] { eth, avax, bnb });
+
+        LiquidityDistribution newEth = newDist("ETH/sICX",
+                BigInteger.valueOf(88).multiply(EXA).divide(BigInteger.valueOf(100))); // 88%
+        LiquidityDistribution newAvax = newDist("AVAX/sICX",
+                BigInteger.valueOf(8).multiply(EXA).divide(BigInteger.valueOf(100))); // 8%
+
+        // Act
+        pol.invoke(governance, "updateDistributions", (Object) new LiquidityDistribution[] { newEth, newAvax });
+
+        // Assert
+        LiquidityDistribution[] configured = (LiquidityDistribution[]) pol.call("getDistributions");
+        assertEquals(3, configured.length);
+        distEq(newEth, configured[0]);
+        distEq(newAvax, configured[1]);
+        distEq(bnb, configured[2]);
+
+        // Act
+        LiquidityDistribution removedAvax = newDist("AVAX/sICX", BigInteger.ZERO);
+        Executable invalidSum = () -> pol.invoke(governance, "updateDistributions",
+                (Object) new LiquidityDistribution[] { removedAvax });
+
+        // Assert
+        expectErrorMessage(invalidSum, Errors.INVALID_SUM);
+
+        // Act
+        LiquidityDistribution removedBnb = newDist("BNB/sICX", BigInteger.ZERO);
+        LiquidityDistribution updatedEth = newDist("ETH/sICX",
+                BigInteger.valueOf(92).multiply(EXA).divide(BigInteger.valueOf(100))); // 92%
+        pol.invoke(governance, "updateDistributions", (Object) new LiquidityDistribution[] { removedBnb, updatedEth });
+
+        // Assert
+        configured = (LiquidityDistribution[]) pol.call("getDistributions");
+        assertEquals(2, configured.length);
+        distEq(updatedEth, configured[0]);
+        distEq(newAvax, configured[1]);
+    }
+
     @Test
     public void distribute_emptyBalance() {
         // Arrange
@@ -173,7 +253,9 @@ public class ProofOfLiquidityTest extends TestBase {
         pol.invoke(governance, "configureDistributions", (Object) dist);
 
         BigInteger stakedAmount = BigInteger.valueOf(90).multiply(EXA);
-        when(sICX.mock.balanceOf(pol.getAddress())).thenReturn(stakedAmount);
+        when(staking.mock.stakeICX(null, null)).thenReturn(stakedAmount);
+        // sICX held by the contract that was not minted by this distribution
+        when(sICX.mock.balanceOf(pol.getAddress())).thenReturn(stakedAmount.add(EXA));
 
         BigInteger expectedEthShare = stakedAmount.multiply(BigInteger.valueOf(90)).divide(BigInteger.valueOf(100));
         BigInteger expectedAvaxShare = stakedAmount.multiply(BigInteger.valueOf(6)).divide(BigInteger.valueOf(100));
@@ -196,6 +278,259 @@ public class ProofOfLiquidityTest extends TestBase {
         verify(staking.mock).stakeICX(null, null);
         BigInteger total = expectedEthShare.add(expectedAvaxShare).add(expectedBNBShare);
         verify(sICX.mock).transfer(rewards, total, expectedData.toString().getBytes());
+        verify(sICX.mock, never()).balanceOf(any());
+    }
+
+    @Test
+    public void fallback_coalescing() {
+        // Arrange
+        LiquidityDistribution eth = newDist("ETH/sICX", EXA);
+        pol.invoke(governance, "configureDistributions", (Object) new LiquidityDistribution[] { eth });
+        BigInteger interval = BigInteger.TEN;
+        BigInteger minBalance = BigInteger.valueOf(5).multiply(EXA);
+        pol.invoke(governance, "configureDistributionCoalescing", interval, minBalance);
+        when(staking.mock.stakeICX(null, null)).thenReturn(EXA);
+        governance.addBalance(BigInteger.valueOf(100).multiply(EXA));
+
+        // Act
+        sm.transfer(governance, pol.getAddress(), EXA);
+
+        // Assert
+        verify(staking.mock, never()).stakeICX(null, null);
+
+        // Act
+        sm.transfer(governance, pol.getAddress(), BigInteger.TEN.multiply(EXA));
+        sm.transfer(governance, pol.getAddress(), BigInteger.TEN.multiply(EXA));
+
+        // Assert
+        // The second deposit is within the interval and only accumulates
+        verify(staking.mock, times(1)).stakeICX(null, null);
+        assertEquals(BigInteger.TEN.multiply(EXA), pol.getAccount().getBalance());
+
+        // Act
+        sm.getBlock().increase(interval.longValue());
+        sm.transfer(governance, pol.getAddress(), EXA);
+
+        // Assert
+        verify(staking.mock, times(2)).stakeICX(null, null);
+    }
+
+    @Test
+    public void tokenFallback_directIntake() {
+        // Arrange
+        LiquidityDistribution eth = newDist("ETH/sICX",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        LiquidityDistribution avax = newDist("AVAX/sICX",
+                BigInteger.valueOf(10).multiply(EXA).divide(BigInteger.valueOf(100))); // 10%
+        pol.invoke(governance, "configureDistributions", (Object) new LiquidityDistribution[] { eth, avax });
+        pol.getAccount().subtractBalance(pol.getAccount().getBalance());
+        BigInteger amount = BigInteger.valueOf(50).multiply(EXA);
+        Account user = sm.createAccount();
+
+        JsonArray expectedData = new JsonArray()
+                .add(new JsonObject()
+                        .add("source", eth.source)
+                        .add("amount", BigInteger.valueOf(45).multiply(EXA).toString()))
+                .add(new JsonObject()
+                        .add("source", avax.source)
+                        .add("amount", BigInteger.valueOf(5).multiply(EXA).toString()));
+
+        // Act
+        Executable unsupportedToken = () -> pol.invoke(user, "tokenFallback", user.getAddress(), amount, new byte[0]);
+        pol.invoke(sICX.account, "tokenFallback", user.getAddress(), amount, new byte[0]);
+
+        // Assert
+        expectErrorMessage(unsupportedToken, Errors.UNSUPPORTED_TOKEN);
+        verify(staking.mock, never()).stakeICX(any(), any());
+        verify(sICX.mock).transfer(rewards, amount, expectedData.toString().getBytes());
+        assertEquals(BigInteger.ZERO, pol.call("getPendingSICX"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void fallback_failedTransferKeepsPending() {
+        // Arrange
+        LiquidityDistribution eth = newDist("ETH/sICX", EXA);
+        pol.invoke(governance, "configureDistributions", (Object) new LiquidityDistribution[] { eth });
+        pol.getAccount().subtractBalance(pol.getAccount().getBalance());
+        BigInteger amount = BigInteger.TEN.multiply(EXA);
+        when(staking.mock.stakeICX(null, null)).thenReturn(amount);
+        doThrow(new IllegalStateException("Rejected")).doNothing().when(sICX.mock).transfer(any(), any(), any());
+        governance.addBalance(amount);
+
+        JsonArray expectedData = new JsonArray()
+                .add(new JsonObject()
+                        .add("source", eth.source)
+                        .add("amount", amount.toString()));
+
+        // Act
+        sm.transfer(governance, pol.getAddress(), amount);
+
+        // Assert
+        verify(staking.mock, times(1)).stakeICX(null, null);
+        assertEquals(BigInteger.ZERO, pol.getAccount().getBalance());
+        assertEquals(amount, pol.call("getPendingSICX"));
+        Map<String, Object> coalescing = (Map<String, Object>) pol.call("getDistributionCoalescing");
+        assertEquals(BigInteger.ZERO, coalescing.get("lastDistributionBlock"));
+
+        // Act
+        pol.invoke(governance, "distribute");
+
+        // Assert
+        verify(staking.mock, times(1)).stakeICX(null, null);
+        verify(sICX.mock, times(2)).transfer(rewards, amount, expectedData.toString().getBytes());
+        assertEquals(BigInteger.ZERO, pol.call("getPendingSICX"));
+    }
+
+    @Test
+    public void tokenFallback_dustCarriedOver() {
+        // Arrange
+        BigInteger third = EXA.divide(BigInteger.valueOf(3));
+        LiquidityDistribution eth = newDist("ETH/sICX", third);
+        LiquidityDistribution avax = newDist("AVAX/sICX", third);
+        LiquidityDistribution bnb = newDist("BNB/sICX", EXA.subtract(third).subtract(third));
+        pol.invoke(governance, "configureDistributions", (Object) new LiquidityDistribution[] { eth, avax, bnb });
+        pol.getAccount().subtractBalance(pol.getAccount().getBalance());
+        BigInteger amount = BigInteger.TEN;
+
+        // Act
+        pol.invoke(sICX.account, "tokenFallback", governance.getAddress(), amount, new byte[0]);
+
+        // Assert
+        // 3 + 3 + 3 are sent, 1 is left for the next distribution
+        verify(sICX.mock).transfer(eq(rewards), eq(BigInteger.valueOf(9)), any());
+        assertEquals(BigInteger.ONE, pol.call("getPendingSICX"));
+
+        // Act
+        pol.invoke(sICX.account, "tokenFallback", governance.getAddress(), BigInteger.valueOf(20), new byte[0]);
+
+        // Assert
+        // 6 + 6 + 7 are sent from 1 + 20, nothing is lost
+        verify(sICX.mock).transfer(eq(rewards), eq(BigInteger.valueOf(19)), any());
+        assertEquals(BigInteger.TWO, pol.call("getPendingSICX"));
+    }
+
+    @Test
+    public void distributionPayload_matchesJson() {
+        // Step costs are only metered on chain, so instead of timing both builders this checks
+        // that the spliced payload is byte for byte the JSON the tree used to produce
+        // Arrange
+        int numberOfSources = 50;
+        LiquidityDistribution[] dist = new LiquidityDistribution[numberOfSources];
+        BigInteger[] amounts = new BigInteger[numberOfSources];
+        JsonArray expectedData = new JsonArray();
+        for (int i = 0; i < numberOfSources; i++) {
+            dist[i] = newDist("TOKEN" + i + "/sICX", EXA.divide(BigInteger.valueOf(numberOfSources)));
+            amounts[i] = BigInteger.valueOf(i).multiply(EXA).add(BigInteger.valueOf(123456789));
+            expectedData.add(new JsonObject()
+                    .add("source", dist[i].source)
+                    .add("amount", amounts[i].toString()));
+        }
+
+        // Act
+        byte[] payload = DistributionPayload.fill(DistributionPayload.template(dist), amounts);
+
+        // Assert
+        byte[] expectedPayload = expectedData.toString().getBytes();
+        assertEquals(expectedPayload.length, payload.length);
+        assertEquals(new String(expectedPayload), new String(payload));
+    }
+
+    @Test
+    public void distributionPayload_escapedSource() {
+        // Arrange
+        LiquidityDistribution quoted = newDist("\"quoted\"/sICX", EXA);
+        BigInteger amount = BigInteger.valueOf(42);
+
+        // Act
+        byte[] payload = DistributionPayload.fill(DistributionPayload.template(
+                new LiquidityDistribution[] { quoted }), new BigInteger[] { amount });
+
+        // Assert
+        JsonArray expectedData = new JsonArray()
+                .add(new JsonObject()
+                        .add("source", quoted.source)
+                        .add("amount", amount.toString()));
+        assertEquals(expectedData.toString(), new String(payload));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void previewDistribution() {
+        // Arrange
+        LiquidityDistribution eth = newDist("ETH/sICX",
+                BigInteger.valueOf(90).multiply(EXA).divide(BigInteger.valueOf(100))); // 90%
+        LiquidityDistribution avax = newDist("AVAX/sICX",
+                BigInteger.valueOf(10).multiply(EXA).divide(BigInteger.valueOf(100))); // 10%
+        pol.getAccount().subtractBalance(pol.getAccount().getBalance());
+
+        // Act
+        Map<String, Object> preview = (Map<String, Object>) pol.call("previewDistribution");
+
+        // Assert
+        assertEquals(Errors.EMPTY_BALANCE, preview.get("error"));
+
+        // Act
+        pol.getAccount().addBalance(BigInteger.valueOf(100).multiply(EXA));
+        preview = (Map<String, Object>) pol.call("previewDistribution");
+
+        // Assert
+        assertEquals(Errors.NOT_CONFIGURED, preview.get("error"));
+
+        // Act
+        pol.invoke(governance, "configureDistributions", (Object) new LiquidityDistribution[] { eth, avax });
+        // 1 sICX = 1.25 ICX
+        when(staking.mock.getTodayRate()).thenReturn(BigInteger.valueOf(125).multiply(BigInteger.TEN.pow(16)));
+        preview = (Map<String, Object>) pol.call("previewDistribution");
+
+        // Assert
+        BigInteger expectedAmount = BigInteger.valueOf(80).multiply(EXA);
+        assertEquals("", preview.get("error"));
+        assertEquals(expectedAmount, preview.get("amount"));
+        assertEquals(expectedAmount, preview.get("total"));
+        assertEquals(BigInteger.ZERO, preview.get("dust"));
+        List<Map<String, Object>> payouts = (List<Map<String, Object>>) preview.get("payouts");
+        assertEquals(eth.source, payouts.get(0).get("source"));
+        assertEquals(BigInteger.valueOf(72).multiply(EXA), payouts.get(0).get("amount"));
+        assertEquals(avax.source, payouts.get(1).get("source"));
+        assertEquals(BigInteger.valueOf(8).multiply(EXA), payouts.get(1).get("amount"));
+    }
+
+    @Test
+    public void update_migratesBaselineDistributions() throws Exception {
+        // Arrange
+        LiquidityDistribution eth = newDist("ETH/sICX",
+                BigInteger.valueOf(50).multiply(EXA).divide(BigInteger.valueOf(100))); // 50%
+        LiquidityDistribution avax = newDist("AVAX/sICX",
+                BigInteger.valueOf(30).multiply(EXA).divide(BigInteger.valueOf(100))); // 30%
+        // The baseline configureDistributions accepted duplicate sources
+        LiquidityDistribution ethAgain = newDist("ETH/sICX",
+                BigInteger.valueOf(20).multiply(EXA).divide(BigInteger.valueOf(100))); // 20%
+        Score legacy = sm.deploy(governance, LegacyProofOfLiquidity.class,
+                (Object) new LiquidityDistribution[] { eth, avax, ethAgain });
+        BigInteger stakedAmount = BigInteger.valueOf(100).multiply(EXA);
+        when(staking.mock.stakeICX(null, null)).thenReturn(stakedAmount);
+
+        JsonArray expectedData = new JsonArray()
+                .add(new JsonObject()
+                        .add("source", eth.source)
+                        .add("amount", BigInteger.valueOf(70).multiply(EXA).toString()))
+                .add(new JsonObject()
+                        .add("source", avax.source)
+                        .add("amount", BigInteger.valueOf(30).multiply(EXA).toString()));
+
+        // Act
+        legacy.invoke(governance, "update", staking.getAddress(), sICX.getAddress(), rewards);
+        legacy.setInstance(LegacyProofOfLiquidity.updated);
+        legacy.getAccount().addBalance(stakedAmount);
+        legacy.invoke(governance, "distribute");
+
+        // Assert
+        LiquidityDistribution[] migrated = (LiquidityDistribution[]) legacy.call("getDistributions");
+        assertEquals(2, migrated.length);
+        distEq(newDist(eth.source, BigInteger.valueOf(70).multiply(EXA).divide(BigInteger.valueOf(100))), migrated[0]);
+        distEq(avax, migrated[1]);
+        verify(sICX.mock).transfer(rewards, stakedAmount, expectedData.toString().getBytes());
     }
 
     @Test
@@ -204,6 +539,8 @@ public class ProofOfLiquidityTest extends TestBase {
         _testPermission("setBalancedRewards", Checks.Errors.ONLY_OWNER, rewards);
         _testPermission("setSICX", Checks.Errors.ONLY_OWNER, sICX.getAddress());
         _testPermission("configureDistributions", Checks.Errors.ONLY_OWNER, (Object)new LiquidityDistribution[0]);
+        _testPermission("updateDistributions", Checks.Errors.ONLY_OWNER, (Object)new LiquidityDistribution[0]);
+        _testPermission("configureDistributionCoalescing", Checks.Errors.ONLY_OWNER, BigInteger.ONE, BigInteger.ONE);
 
     }
 
@@ -1,7 +1,13 @@
 package icon.inflation.score.interfaces;
 
+import java.math.BigInteger;
+import java.util.Map;
+
 import icon.inflation.score.structs.Bucket;
+import score.Address;
+import score.annotation.EventLog;
 import score.annotation.External;
+import score.annotation.Optional;
 import score.annotation.Payable;
 
 public interface IBuckets {
@@ -12,13 +18,43 @@ public interface IBuckets {
     /**
      * Getter for inflation configuration
      *
-     * @return Returns the bucket configuration
+     * @param _offset Optional index of the first bucket to return.
+     * @param _limit  Optional max number of buckets to return, all buckets are
+     *                returned if neither is set.
+     * @return Returns the bucket configuration, with child buckets flattened
+     *         into leaves named after their path, e.g. "PoL/sICX-ICX"
      */
     @External(readonly = true)
-    Bucket[] getBuckets();
+    Bucket[] getBuckets(@Optional BigInteger _offset, @Optional BigInteger _limit);
+
+    @External(readonly = true)
+    BigInteger getBucketCount();
 
     /**
-     * Configures the inflations buckets.
+     * Looks up a bucket by its name, without loading the whole configuration.
+     *
+     * @param _name the bucket name, the full path for child buckets.
+     * @return Returns the bucket or null if there is none with this name
+     */
+    @External(readonly = true)
+    Bucket getBucket(String _name);
+
+    /**
+     * Looks up the first bucket paying to an address.
+     *
+     * @param _address the bucket address.
+     * @return Returns the bucket or null if no bucket pays to this address
+     */
+    @External(readonly = true)
+    Bucket getBucketByAddress(Address _address);
+
+    /**
+     * Configures the inflations buckets. A bucket with a parent receives its
+     * share of the parent, so the shares of all children of a parent have to
+     * add up to 100% and only buckets without children are paid. Buckets with
+     * the stake action have their ICX staked with the bucket address as sICX
+     * receiver and the bucket data is passed to staking. The data of other
+     * buckets is passed to their token transfers.
      *
      * @param _buckets a list of all buckets for the current configuration.
      */
@@ -26,11 +62,239 @@ public interface IBuckets {
     void configureBuckets(Bucket[] _buckets);
 
     /**
-     * Distributes inflations to all currently configured buckets
+     * Adds, updates or removes buckets by name without passing the whole
+     * configuration. A share of zero removes the bucket. The resulting
+     * configuration still has to add up to 100%. A top level bucket replaces
+     * all of its children, which have to be passed along with it.
+     *
+     * @param _buckets the buckets to change.
+     */
+    @External
+    void updateBuckets(Bucket[] _buckets);
+
+    /**
+     * Getter for the configuration staged with stageBuckets
+     *
+     * @return Returns whether a configuration is staged, the number of chunks
+     *         and buckets and the sum of their shares
+     */
+    @External(readonly = true)
+    Map<String, Object> getStagedBuckets();
+
+    /**
+     * Appends a chunk of buckets to the next configuration, without changing
+     * the active one. Children have to be in the same chunk as their parent.
+     * Configuring the buckets directly discards the staged configuration.
+     *
+     * @param _buckets the next chunk of buckets.
+     */
+    @External
+    void stageBuckets(Bucket[] _buckets);
+
+    /**
+     * Switches to the staged configuration, which has to add up to 100%.
+     */
+    @External
+    void commitBuckets();
+
+    @External
+    void discardStagedBuckets();
+
+    /**
+     * Getter for the auto distribution configuration
+     *
+     * @return Returns whether it is enabled, the min balance, the min interval, the
+     *         max buckets per distribution and the block of the last distribution
+     */
+    @External(readonly = true)
+    Map<String, Object> getAutoDistribution();
+
+    /**
+     * Configures distributions triggered by incoming ICX. A distribution is only
+     * triggered when both the balance and the interval since the last distribution
+     * are reached.
+     *
+     * @param _enabled    Whether incoming ICX triggers a distribution.
+     * @param _minBalance The min distributable balance.
+     * @param _interval   The min number of blocks since the last distribution.
+     * @param _maxBuckets The max number of buckets paid per deposit, 0 for all.
+     */
+    @External
+    void configureAutoDistribution(boolean _enabled, BigInteger _minBalance, BigInteger _interval,
+            BigInteger _maxBuckets);
+
+    /**
+     * Getter for the progress of the current distribution round
+     *
+     * @return Returns whether a round is active, its balance snapshot, the next
+     *         bucket to pay and the number of buckets
+     */
+    @External(readonly = true)
+    Map<String, Object> getDistributionRound();
+
+    /**
+     * Simulates the next call to distribute with the same math, without any
+     * transfers or state changes.
+     *
+     * @param _maxBuckets Optional max number of buckets, as passed to distribute.
+     * @return Returns the predicted error or an empty string, the balance of the
+     *         round and per bucket the amount transferred and carried forward, as
+     *         well as the totals and the rounding dust kept for later rounds
+     */
+    @External(readonly = true)
+    Map<String, Object> previewDistribution(@Optional BigInteger _maxBuckets);
+
+    /**
+     * Distributes inflations and all received IRC2 tokens to the currently configured
+     * buckets in a single pass. In claim mode the ICX emissions only update the
+     * emissions index and buckets have to claim their share.
+     *
+     * @param _maxBuckets Optional max number of buckets to pay in this call. If the
+     *                    round is not completed it is continued by the next call.
+     */
+    @External
+    void distribute(@Optional BigInteger _maxBuckets);
+
+    @External(readonly = true)
+    Address getStaking();
+
+    /**
+     * Sets the staking contract used by buckets with the stake action.
+     *
+     * @param _staking the staking contract address.
+     */
+    @External
+    void setStaking(Address _staking);
+
+    @External(readonly = true)
+    boolean getClaimMode();
+
+    /**
+     * Switches between pushing emissions to the buckets on each distribution and
+     * accumulating them for the buckets to claim.
+     *
+     * @param _enabled true to accumulate emissions instead of transferring them.
+     */
+    @External
+    void setClaimMode(boolean _enabled);
+
+    /**
+     * Getter for the total amount of emissions allocated to buckets but not yet claimed
+     *
+     * @return Returns the amount of ICX held on behalf of buckets
+     */
+    @External(readonly = true)
+    BigInteger getUnclaimedEmissions();
+
+    /**
+     * Getter for the whole ICX lost to rounding when buckets settle their claim
+     * mode emissions
+     *
+     * @return Returns the amount of ICX that is part of the unclaimed emissions
+     *         but owed to no bucket
+     */
+    @External(readonly = true)
+    BigInteger getEmissionsDust();
+
+    /**
+     * Releases the emissions dust from the unclaimed emissions, so that it is
+     * distributed again with the next distribution.
+     */
+    @External
+    void recoverEmissionsDust();
+
+    /**
+     * Getter for the amount of ICX that has been allocated to a bucket but was
+     * below its min payout
+     *
+     * @param _bucket the bucket name.
+     * @return Returns the amount carried forward to the next distribution
+     */
+    @External(readonly = true)
+    BigInteger getCarriedForward(String _bucket);
+
+    /**
+     * Getter for the amount of ICX an address can currently claim
+     *
+     * @param _address the bucket address.
+     * @param _bucket  optional bucket name, to include its carried forward amount.
+     * @return Returns the claimable amount of ICX
+     */
+    @External(readonly = true)
+    BigInteger getClaimable(Address _address, @Optional String _bucket);
+
+    /**
+     * Transfers all emissions accrued by the caller as plain ICX, regardless of
+     * the action of its bucket. If a bucket of the caller is given, the amount
+     * carried forward for it is paid out as well.
+     *
+     * @param _bucket optional bucket name.
+     */
+    @External
+    void claim(@Optional String _bucket);
+
+    /**
+     * Getter for token payouts to an address that failed during distribution
      *
+     * @param _address the bucket address.
+     * @param _token   the token address.
+     * @return Returns the escrowed amount of the token
      */
+    @External(readonly = true)
+    BigInteger getClaimableTokens(Address _address, Address _token);
+
+    /**
+     * Transfers the escrowed amount of a token to the caller.
+     *
+     * @param _token the token address.
+     */
+    @External
+    void claimTokens(Address _token);
+
+    /**
+     * Emitted when an ICX payout to a bucket fails. The amount can be claimed
+     * by the bucket address with claim.
+     */
+    @EventLog(indexed = 1)
+    void PayoutEscrowed(Address bucket, BigInteger amount);
+
+    /**
+     * Emitted when a token payout to a bucket fails. The amount can be claimed
+     * by the bucket address with claimTokens.
+     */
+    @EventLog(indexed = 2)
+    void TokenPayoutEscrowed(Address bucket, Address token, BigInteger amount);
+
+    @External(readonly = true)
+    Address[] getTokens();
+
+    /**
+     * Getter for the amount of an IRC2 token received but not yet distributed
+     *
+     * @param _token the token address.
+     * @return Returns the tracked token balance
+     */
+    @External(readonly = true)
+    BigInteger getTokenBalance(Address _token);
+
+    /**
+     * Adds an IRC2 token to be distributed alongside ICX, using the same bucket shares.
+     *
+     * @param _token the token address.
+     */
+    @External
+    void addToken(Address _token);
+
+    /**
+     * Stops accepting an IRC2 token. Cannot be called during a distribution round.
+     *
+     * @param _token the token address.
+     */
+    @External
+    void removeToken(Address _token);
+
     @External
-    void distribute();
+    void tokenFallback(Address _from, BigInteger _value, byte[] _data);
 
     @Payable
     void fallback();
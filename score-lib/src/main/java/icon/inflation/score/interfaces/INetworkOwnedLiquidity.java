@@ -1,6 +1,8 @@
 package icon.inflation.score.interfaces;
 
 import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
 
 import icon.inflation.score.structs.LiquidityOrder;
 import score.Address;
@@ -52,7 +54,8 @@ public interface INetworkOwnedLiquidity {
     BigInteger getInvestedEmissions();
 
     /**
-     * Configures a liquidity order
+     * Configures a liquidity order, the pool metadata is cached on the first
+     * configuration
      *
      * @param pid   The poolId on the balanced dex
      * @param limit The max USD limit to purchase for each Order Period
@@ -61,6 +64,38 @@ public interface INetworkOwnedLiquidity {
     void configureOrder(BigInteger pid, BigInteger limit);
 
 
+    /**
+     * Getter for the pool tokens, their symbols and units cached for a pool
+     *
+     * @param pid The poolId on the balanced dex
+     */
+    @External(readonly = true)
+    Map<String, Object> getPoolMetadata(BigInteger pid);
+
+    /**
+     * Reloads the cached pool tokens, symbols and units of a pool from the dex
+     *
+     * @param pid The poolId on the balanced dex
+     */
+    @External
+    void refreshPoolMetadata(BigInteger pid);
+
+    /**
+     * Returns the ICX the order can pay out in the current block, which is the
+     * remaining amount plus what the order accrued since the last purchase,
+     * capped at the limit.
+     *
+     * @param pid The poolId on the balanced dex
+     */
+    @External(readonly = true)
+    BigInteger getAvailableAmount(BigInteger pid);
+
+    /**
+     * Returns the available amount of every order, keyed by pid.
+     */
+    @External(readonly = true)
+    Map<String, BigInteger> getAvailableAmounts();
+
     /**
      * Configures the remaining amount of a liquidity order
      *
@@ -109,7 +144,8 @@ public interface INetworkOwnedLiquidity {
 
     /**
      * Calculates the ICX rewards gained by swapping 'amount' of LP tokens with a
-     * specific pid
+     * specific pid. Uses the pool stats and prices cached by swaps in the current
+     * block, if any.
      *
      * @param pid    The poolId on the balanced dex
      * @param amount The amount of LP tokens to swap
@@ -117,6 +153,20 @@ public interface INetworkOwnedLiquidity {
     @External(readonly = true)
     BigInteger calculateICXReward(BigInteger pid, BigInteger amount);
 
+    /**
+     * Quotes several swaps at once, sharing the oracle prices between them. Unlike
+     * calculateICXReward, a pool over the slippage limit does not revert but is
+     * returned with its slippage.
+     *
+     * @param pids    The poolIds on the balanced dex
+     * @param amounts The amount of LP tokens to swap for each pid
+     * @return A list of {pid, reward, slippage, remaining}, where slippage is in
+     *         points and remaining is the payout the order can still make in the
+     *         current block
+     */
+    @External(readonly = true)
+    List<Map<String, Object>> calculateICXRewards(BigInteger[] pids, BigInteger[] amounts);
+
     /**
      * Receives LP tokens from the balanced dex, If the method is swap then
      * calculate payout to user.
@@ -125,6 +175,16 @@ public interface INetworkOwnedLiquidity {
     @External
     void onIRC31Received(Address _operator, Address _from, BigInteger _id, BigInteger _value, byte[] _data);
 
+    /**
+     * Receives LP tokens of several pools from the balanced dex. If the method is
+     * swap then every pid is filled and the user receives the combined payout in
+     * one transfer, with a LiquidityPurchased event per pid.
+     *
+     */
+    @External
+    void onIRC31BatchReceived(Address _operator, Address _from, BigInteger[] _ids, BigInteger[] _values,
+            byte[] _data);
+
     /**
      * Receives ICX
      */
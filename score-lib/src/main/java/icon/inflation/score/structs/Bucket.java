@@ -7,9 +7,23 @@ import score.ObjectWriter;
 import java.math.BigInteger;
 
 public class Bucket {
+    public static final String ACTION_TRANSFER = "transfer";
+    public static final String ACTION_STAKE = "stake";
+
     public String name;
     public Address address;
     public BigInteger share;
+    // Optional, amounts below it are carried forward to the next distribution
+    public BigInteger minPayout;
+    // Optional, name of the bucket this is a child of. The share is then a fraction of the
+    // parent. Only used as input, the stored configuration contains the flattened leaves.
+    public String parent;
+    // Optional, how ICX is paid out: transfer (default) or stake, which stakes it with the
+    // address as sICX receiver
+    public String action;
+    // Optional, passed along when staking for a stake bucket, or when transferring tokens to any
+    // other bucket
+    public byte[] data;
 
     public static void writeObject(ObjectWriter writer, Bucket bucket) {
         bucket.writeObject(writer);
@@ -21,15 +35,25 @@ public class Bucket {
         bucket.name = reader.readString();
         bucket.address = reader.readAddress();
         bucket.share = reader.readBigInteger();
+        if (reader.hasNext()) {
+            bucket.minPayout = reader.readNullable(BigInteger.class);
+        }
+        if (reader.hasNext()) {
+            bucket.action = reader.readNullable(String.class);
+            bucket.data = reader.readNullable(byte[].class);
+        }
         reader.end();
         return bucket;
     }
 
     public void writeObject(ObjectWriter writer) {
-        writer.beginList(3);
+        writer.beginList(6);
         writer.write(this.name);
         writer.write(this.address);
         writer.write(this.share);
+        writer.writeNullable(this.minPayout);
+        writer.writeNullable(this.action);
+        writer.writeNullable(this.data);
         writer.end();
     }
 }
@@ -1,14 +1,23 @@
 package icon.inflation.score.structs;
 
+import icon.inflation.score.util.ShareRegistry;
 import score.ObjectReader;
 import score.ObjectWriter;
 
 import java.math.BigInteger;
 
-public class LiquidityDistribution {
+public class LiquidityDistribution implements ShareRegistry.Entry {
     public String source;
     public BigInteger share;
 
+    public String key() {
+        return source;
+    }
+
+    public BigInteger weight() {
+        return share;
+    }
+
     public static void writeObject(ObjectWriter writer, LiquidityDistribution dist) {
         dist.writeObject(writer);
     }
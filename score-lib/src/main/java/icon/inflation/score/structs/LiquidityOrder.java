@@ -12,6 +12,7 @@ public class LiquidityOrder {
     public BigInteger remaining;
     // return value only
     public BigInteger pid;
+    public BigInteger invested;
 
     public LiquidityOrder() {
         lastPurchaseBlock = BigInteger.valueOf(Context.getBlockHeight());
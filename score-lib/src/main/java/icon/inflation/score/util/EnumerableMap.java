@@ -0,0 +1,104 @@
+package icon.inflation.score.util;
+
+import score.ArrayDB;
+import score.Context;
+import score.DictDB;
+
+/**
+ * Values keyed by a key of their own, with O(1) lookup, upsert and remove that can
+ * still be iterated.
+ *
+ * Values are stored in an ArrayDB so that iterating them costs one read per value,
+ * removal swaps the last value into the removed position.
+ */
+public class EnumerableMap<K, V extends EnumerableMap.Entry<K>> {
+
+    public interface Entry<K> {
+        K key();
+    }
+
+    private final ArrayDB<V> entries;
+    // position + 1, so that 0 means not present
+    private final DictDB<K, Integer> positions;
+
+    public EnumerableMap(String id, String indexId, Class<V> valueClass) {
+        entries = Context.newArrayDB(id, valueClass);
+        positions = Context.newDictDB(indexId, Integer.class);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public V at(int index) {
+        return entries.get(index);
+    }
+
+    /**
+     * @return Returns the index of the value stored under the key, or -1 if there is none
+     */
+    public int indexOf(K key) {
+        return positions.getOrDefault(key, 0) - 1;
+    }
+
+    public boolean contains(K key) {
+        return indexOf(key) >= 0;
+    }
+
+    public V get(K key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+
+        return entries.get(index);
+    }
+
+    /**
+     * Appends a value whose key is not stored yet.
+     *
+     * @return Returns the index of the value
+     */
+    public int add(V value) {
+        entries.add(value);
+        int size = entries.size();
+        positions.set(value.key(), size);
+        return size - 1;
+    }
+
+    /**
+     * Replaces the value at an index returned by indexOf or add, without reading the index.
+     */
+    public void setAt(int index, V value) {
+        entries.set(index, value);
+    }
+
+    public void set(V value) {
+        int index = indexOf(value.key());
+        if (index < 0) {
+            add(value);
+        } else {
+            setAt(index, value);
+        }
+    }
+
+    /**
+     * @return Returns the removed value, or null if there is none for the key
+     */
+    public V remove(K key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+
+        V removed = entries.get(index);
+        V last = entries.pop();
+        if (index != entries.size()) {
+            entries.set(index, last);
+            positions.set(last.key(), index + 1);
+        }
+
+        positions.set(key, null);
+        return removed;
+    }
+}
@@ -0,0 +1,70 @@
+package icon.inflation.score.util;
+
+import java.math.BigInteger;
+
+import score.Context;
+import score.VarDB;
+
+/**
+ * Weighted entries keyed by name, with O(1) upsert and remove and a running
+ * total of all weights.
+ *
+ * Entries are kept in an EnumerableMap, so iterating them costs one read per entry.
+ */
+public class ShareRegistry<V extends ShareRegistry.Entry> {
+
+    public interface Entry extends EnumerableMap.Entry<String> {
+        BigInteger weight();
+    }
+
+    private final EnumerableMap<String, V> entries;
+    private final VarDB<BigInteger> total;
+
+    public ShareRegistry(String id, Class<V> entryClass) {
+        entries = new EnumerableMap<>(id, id + "_POSITIONS", entryClass);
+        total = Context.newVarDB(id + "_TOTAL", BigInteger.class);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public V at(int index) {
+        return entries.at(index);
+    }
+
+    public boolean contains(String key) {
+        return entries.contains(key);
+    }
+
+    public V get(String key) {
+        return entries.get(key);
+    }
+
+    public BigInteger total() {
+        return total.getOrDefault(BigInteger.ZERO);
+    }
+
+    public void upsert(V entry) {
+        int index = entries.indexOf(entry.key());
+        BigInteger previousWeight = BigInteger.ZERO;
+        if (index < 0) {
+            entries.add(entry);
+        } else {
+            previousWeight = entries.at(index).weight();
+            entries.setAt(index, entry);
+        }
+
+        total.set(total().subtract(previousWeight).add(entry.weight()));
+    }
+
+    public boolean remove(String key) {
+        V removed = entries.remove(key);
+        if (removed == null) {
+            return false;
+        }
+
+        total.set(total().subtract(removed.weight()));
+        return true;
+    }
+}
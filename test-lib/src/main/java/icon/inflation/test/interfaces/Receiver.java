@@ -0,0 +1,10 @@
+package icon.inflation.test.interfaces;
+
+import foundation.icon.score.client.ScoreInterface;
+import score.annotation.Payable;
+
+@ScoreInterface
+public interface Receiver {
+    @Payable
+    void fallback();
+}
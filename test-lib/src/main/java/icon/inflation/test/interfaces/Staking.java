@@ -13,4 +13,7 @@ public interface Staking {
     @External
     @Payable
     BigInteger stakeICX(@Optional Address _to, @Optional byte[] _data);
+
+    @External(readonly = true)
+    BigInteger getTodayRate();
 }